@@ -3,15 +3,26 @@ package edu.northeastern.Service;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import org.apache.http.HttpHost;
-import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
 import org.elasticsearch.action.index.IndexRequest;
-import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.GetAliasesResponse;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.client.indices.CreateIndexRequest;
 import org.elasticsearch.client.indices.GetIndexRequest;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.common.xcontent.XContentType;
@@ -19,16 +30,21 @@ import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.reindex.BulkByScrollResponse;
 import org.elasticsearch.index.reindex.DeleteByQueryRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import edu.northeastern.repository.PlanRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.core.io.DefaultResourceLoader;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 import org.springframework.util.FileCopyUtils;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.*;
 
 @Service
 public class ElasticsearchService {
@@ -50,27 +66,31 @@ public class ElasticsearchService {
     private static final String plan_objt = "objectType";
     private static final String plan_objid = "objectId";
     private static final String plan_org = "_org";
+    private static final String plan_manifest = "child_ids";
+    private static final String plan_id = "planId";
+    private static final Set<String> relations = new HashSet<>(Arrays.asList(plan_pcs, plan_ls, plan_pscs, plan_lps));
 
     private static final RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(new HttpHost(hostname, elastic_port, scheme)));
     private static final Logger logger = LoggerFactory.getLogger(ElasticsearchService.class);
 
     /**
-     1. Generate or re-generate index in elasticsearch
+     1. indexplan is an alias over a versioned index (indexplan_vN). At startup create indexplan_v1 and the alias
+     when neither the alias nor a legacy concrete indexplan exists; an existing index is never dropped,
+     rebuilding it is the job of PlanReindexService.
      **/
-    public static void addMessageQueueListener(){
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureIndex(){
         try {
-            GetIndexRequest request = new GetIndexRequest(indexName);
-            boolean exist = client.indices().exists(request, RequestOptions.DEFAULT);
+            boolean exist = client.indices().exists(new GetIndexRequest(indexName), RequestOptions.DEFAULT);
             if (exist) {
-                client.indices().delete(new DeleteIndexRequest(indexName), RequestOptions.DEFAULT);
-                String index = createElasticIndex();
-                logger.info("Index "+index+" successfully destroyed and recreated.");
-            } else {
-                String index = createElasticIndex();
-                logger.info("Index "+index+" successfully created.");
+                logger.info("Index "+indexName+" found.");
+                return;
             }
+            String index = createVersionedIndex(false);
+            swapAlias(index);
+            logger.info("Index "+index+" successfully created behind alias "+indexName+".");
         } catch (IOException ex) {
-            logger.error("Error occurred when initializing message queue listener! "+ex.getMessage());
+            logger.error("Error occurred when initializing index "+indexName+"! "+ex.getMessage());
         }
     }
 
@@ -78,15 +98,30 @@ public class ElasticsearchService {
     private static final Integer numOfShards = 3;
     private static final String indexReplicas = "index.number_of_replicas";
     private static final Integer numOfReplicas = 2;
+    private static final String indexRefresh = "index.refresh_interval";
+    private static final String refreshInterval = "1s";
+    private static final String versionPrefix = indexName + "_v";
 
     /**
-     1.1 Building index with : mapping(w/ parent-child relationship), shard, replica
+     1.1 Building index indexplan_vN (N one above the highest existing version) with : mapping(w/ parent-child relationship), shard, replica.
+     For a bulk load the index starts without replicas and refresh, finishLoad restores them.
      **/
-    private static String createElasticIndex() throws IOException {
-        CreateIndexRequest request = new CreateIndexRequest(indexName);
+    public static String createVersionedIndex(boolean bulkLoad) throws IOException {
+        int version = 0;
+        GetIndexRequest existing = new GetIndexRequest(versionPrefix + "*");
+        for (String index : client.indices().get(existing, RequestOptions.DEFAULT).getIndices()) {
+            try {
+                version = Math.max(version, Integer.parseInt(index.substring(versionPrefix.length())));
+            } catch (NumberFormatException ex) {
+                logger.warn("Ignoring index "+index+" while numbering index versions.");
+            }
+        }
+        String name = versionPrefix + (version + 1);
+        CreateIndexRequest request = new CreateIndexRequest(name);
         request.settings(Settings.builder()
                 .put(indexShards, numOfShards)
-                .put(indexReplicas, numOfReplicas));
+                .put(indexReplicas, bulkLoad ? 0 : numOfReplicas)
+                .put(indexRefresh, bulkLoad ? "-1" : refreshInterval));
         DefaultResourceLoader resourceLoader = new DefaultResourceLoader();
         Resource resource = resourceLoader.getResource("classpath:./mapping.json");
         String mappingJson = new String(FileCopyUtils.copyToByteArray(resource.getInputStream()));
@@ -95,65 +130,300 @@ public class ElasticsearchService {
     }
 
     /**
-     2 postDocument (recursive)
+     1.2 restore replicas and refresh after a bulk load and make the loaded documents searchable
      **/
-    public static String postDocument(JsonNode jsonNode, String parentId, String ancestorId, String name) {
-        if(jsonNode==null) return null;
-        try{
-            IndexRequest request = new IndexRequest(indexName);
-            String documentId = jsonNode.get(plan_objid).asText();
-            request.id(documentId);
-            if(ancestorId == null) {
-                ancestorId = parentId;
+    public static void finishLoad(String index) throws IOException {
+        UpdateSettingsRequest request = new UpdateSettingsRequest(index).settings(Settings.builder()
+                .put(indexReplicas, numOfReplicas)
+                .put(indexRefresh, refreshInterval));
+        client.indices().putSettings(request, RequestOptions.DEFAULT);
+        client.indices().refresh(new RefreshRequest(index), RequestOptions.DEFAULT);
+    }
+
+    /**
+     1.3 point the alias at index in one atomic aliases update: the alias leaves its previous indices, and a legacy
+     concrete index named like the alias is dropped in the same update. Returns the indices the alias left.
+     **/
+    public static List<String> swapAlias(String index) throws IOException {
+        GetAliasesResponse aliases = client.indices().getAlias(new GetAliasesRequest(indexName), RequestOptions.DEFAULT);
+        List<String> previous = new ArrayList<>(aliases.getAliases().keySet());
+        IndicesAliasesRequest request = new IndicesAliasesRequest();
+        request.addAliasAction(IndicesAliasesRequest.AliasActions.add().index(index).alias(indexName));
+        for (String old : previous) {
+            if (!old.equals(index)) {
+                request.addAliasAction(IndicesAliasesRequest.AliasActions.remove().index(old).alias(indexName));
             }
-            if(ancestorId == null) {
-                ancestorId = documentId;
+        }
+        if (previous.isEmpty() && client.indices().exists(new GetIndexRequest(indexName), RequestOptions.DEFAULT)) {
+            request.addAliasAction(IndicesAliasesRequest.AliasActions.removeIndex().index(indexName));
+            previous.add(indexName);
+        }
+        client.indices().updateAliases(request, RequestOptions.DEFAULT);
+        previous.remove(index);
+        return previous;
+    }
+
+    /**
+     1.4 while a reindex loads the mirror index, every write sent to the alias is also sent there.
+     Deletes also leave a tombstone (routing and id, or the whole routing for a delete-by-query): the reindex may still
+     load a snapshot of the deleted documents read from redis before the delete, so it purges the tombstones once
+     loaded. A later mirrored write of the same document (or routing) clears its tombstone.
+     The mirror index and the tombstones are kept in redis (PlanRepository) and read on every bulk request, so the
+     writes of every instance are mirrored, whichever one runs the reindex.
+     **/
+    private static final String tombstoneSeparator = "\n";
+    private static PlanRepository planRepository;
+
+    @Autowired
+    public void setPlanRepository(PlanRepository planRepository) {
+        ElasticsearchService.planRepository = planRepository;
+    }
+
+    public static void setMirrorIndex(String index) {
+        planRepository.setMirrorIndex(index);
+    }
+
+    /**
+     1.5 delete from target every document deleted through the alias while it was loaded; returns how many tombstones
+     were purged, throws when the deletes failed
+     **/
+    public static int purgeMirrorTombstones(String target) throws IOException {
+        List<String> tombstones = new ArrayList<>(planRepository.getMirrorTombstones());
+        //delete-by-query only sees refreshed documents, and target has no refresh until finishLoad
+        client.indices().refresh(new RefreshRequest(target), RequestOptions.DEFAULT);
+        BulkRequest bulkRequest = new BulkRequest();
+        for (String tombstone : tombstones) {
+            int separator = tombstone.indexOf(tombstoneSeparator);
+            String routing = tombstone.substring(0, separator);
+            String id = tombstone.substring(separator + 1);
+            if (id.isEmpty()) {
+                DeleteByQueryRequest request = new DeleteByQueryRequest(target);
+                request.setQuery(QueryBuilders.matchQuery("_routing", routing));
+                client.deleteByQuery(request, RequestOptions.DEFAULT);
+            } else {
+                bulkRequest.add(new DeleteRequest(target, id).routing(routing));
             }
-            request.routing(ancestorId);
-            //1. generate builder
-            request.source(generateBuilder(jsonNode, parentId, name));
-            //2. building current document
-            IndexResponse indexResponse = client.index(request, RequestOptions.DEFAULT);
-            //3. recursive posting documents
-            checkForNestedObjectsInJsonNode(jsonNode, documentId, ancestorId);
-
-            logger.info("Document with id: "+indexResponse.getId()+" posted.");
-            return indexResponse.getResult().name();
-        }catch (IOException ex){
-            logger.error("Error occurred in creating document"+jsonNode.get(plan_objid).asText()+": "+ex.getMessage());
-            ex.printStackTrace();
-            return null;
         }
+        BulkResult result = executeBulk(bulkRequest);
+        if (result == null || !result.getFailed().isEmpty()) {
+            throw new IOException("Purging deleted documents from " + target + " failed: " + result);
+        }
+        planRepository.updateMirrorTombstones(Collections.emptyList(), tombstones);
+        return tombstones.size();
+    }
+
+    /**
+     2 postDocument: flatten the plan into its parent/child join documents and index them with one bulk request
+     **/
+    public static String postDocument(JsonNode jsonNode, String parentId, String ancestorId, String name) {
+        if(jsonNode==null) return null;
+        BulkRequest bulkRequest = new BulkRequest();
+        addIndexRequests(bulkRequest, jsonNode, parentId, ancestorId, name);
+        BulkResult result = executeBulk(bulkRequest);
+        return result == null ? null : result.toString();
+    }
+
+    /**
+     2.1 one pass over the plan, every document is routed to the root plan so parent and children share a shard.
+     The root document records the ids of all its descendants (child_ids manifest) so deletes need no query.
+     Returns the ids of every document added, the root first.
+     **/
+    public static List<String> addIndexRequests(BulkRequest bulkRequest, JsonNode jsonNode, String parentId, String ancestorId, String name) {
+        List<String> documentIds = new ArrayList<>();
+        if(jsonNode==null) return documentIds;
+        String documentId = jsonNode.get(plan_objid).asText();
+        documentIds.add(documentId);
+        if(ancestorId == null) {
+            ancestorId = parentId;
+        }
+        if(ancestorId == null) {
+            ancestorId = documentId;
+        }
+        BulkRequest children = new BulkRequest();
+        checkForNestedObjectsInJsonNode(children, documentIds, jsonNode, documentId, ancestorId);
+        XContentBuilder source = parentId == null
+                ? generateBuilder(jsonNode, null, name, ancestorId, documentIds.subList(1, documentIds.size()))
+                : generateBuilder(jsonNode, parentId, name, ancestorId);
+        bulkRequest.add(new IndexRequest(indexName)
+                .id(documentId)
+                .routing(ancestorId)
+                .source(source));
+        children.requests().forEach(bulkRequest::add);
+        return documentIds;
     }
 
     /**
-     2.3 for any key-value pairs: if the value is object or array, go recursive and call postDocument
+     2.1.1 apply a patch delta (see PlanDiff) on top of the plan's current documents: changed objects are re-indexed,
+     removed and detached ones deleted (a detached object may still be shared with other plans, but the document
+     routed to this plan is this plan's copy), and the root is re-indexed when its own fields or its manifest changed.
+     childIds is the current manifest; the updated manifest is returned.
      **/
-    private static void checkForNestedObjectsInJsonNode(JsonNode jsonNode, String documentId, String ancestorId) {
+    public static List<String> addDeltaRequests(BulkRequest bulkRequest, JsonNode delta, List<String> childIds) {
+        String planId = delta.get(plan_objid).asText();
+        Set<String> manifest = new LinkedHashSet<>(childIds);
+        boolean manifestChanged = false;
+        for (JsonNode removed : delta.path("delete")) {
+            manifestChanged |= manifest.remove(removed.asText());
+            bulkRequest.add(new DeleteRequest(indexName, removed.asText()).routing(planId));
+        }
+        for (JsonNode detached : delta.path("detach")) {
+            manifestChanged |= manifest.remove(detached.asText());
+            bulkRequest.add(new DeleteRequest(indexName, detached.asText()).routing(planId));
+        }
+        for (JsonNode upsert : delta.path("upsert")) {
+            String name = upsert.path("name").asText();
+            if (!relations.contains(name)) continue;
+            JsonNode document = upsert.get("document");
+            String documentId = document.get(plan_objid).asText();
+            bulkRequest.add(new IndexRequest(indexName)
+                    .id(documentId)
+                    .routing(planId)
+                    .source(generateBuilder(document, upsert.path("parent").asText(), name, planId)));
+            manifestChanged |= manifest.add(documentId);
+        }
+        List<String> updated = new ArrayList<>(manifest);
+        if (manifestChanged || delta.path("rootChanged").asBoolean()) {
+            bulkRequest.add(new IndexRequest(indexName)
+                    .id(planId)
+                    .routing(planId)
+                    .source(generateBuilder(delta.get("root"), null, null, planId, updated)));
+        }
+        return updated;
+    }
+
+    /**
+     2.2 for any key-value pairs: if the value is object or array, go recursive and collect its documents
+     **/
+    private static void checkForNestedObjectsInJsonNode(BulkRequest bulkRequest, List<String> documentIds, JsonNode jsonNode, String documentId, String ancestorId) {
         jsonNode.fields().forEachRemaining(e -> {
             String key = e.getKey();
             switch (key){
                 case plan_pcs:
-                    postDocument(jsonNode.get(plan_pcs), documentId, ancestorId, plan_pcs);
+                    documentIds.addAll(addIndexRequests(bulkRequest, jsonNode.get(plan_pcs), documentId, ancestorId, plan_pcs));
                     break;
                 case plan_ls:
-                    postDocument(jsonNode.get(plan_ls), documentId, ancestorId, plan_ls);
+                    documentIds.addAll(addIndexRequests(bulkRequest, jsonNode.get(plan_ls), documentId, ancestorId, plan_ls));
                     break;
                 case plan_pscs:
-                    postDocument(jsonNode.get(plan_pscs), documentId, ancestorId, plan_pscs);
+                    documentIds.addAll(addIndexRequests(bulkRequest, jsonNode.get(plan_pscs), documentId, ancestorId, plan_pscs));
                     break;
                 case plan_lps:
                     ArrayNode jsonArray = (ArrayNode) jsonNode.get(plan_lps);
-                    jsonArray.forEach(jn -> postDocument(jn, documentId, ancestorId, plan_lps));
+                    jsonArray.forEach(jn -> documentIds.addAll(addIndexRequests(bulkRequest, jn, documentId, ancestorId, plan_lps)));
                     break;
                 default:
-                    logger.info("Skipping plain text key value pair ("+key+"-"+e.getValue()+") in iterating nested objects.");
                     break;
             }
         });
     }
 
-    private static XContentBuilder generateBuilder(JsonNode jsonNode, String parentId, String name) {
+    /**
+     2.3 send the bulk request and report the items that failed; failures caused by an overloaded cluster are retryable
+     **/
+    public static BulkResult executeBulk(BulkRequest bulkRequest) {
+        if (bulkRequest.numberOfActions() == 0) return new BulkResult(0, new ArrayList<>(), false);
+        addMirrorRequests(bulkRequest);
+        try {
+            BulkResponse response = client.bulk(bulkRequest, RequestOptions.DEFAULT);
+            List<String> failed = new ArrayList<>();
+            boolean retryable = false;
+            int conflicts = 0;
+            if (response.hasFailures()) {
+                for (BulkItemResponse item : response.getItems()) {
+                    if (!item.isFailed()) continue;
+                    RestStatus status = item.status();
+                    if (status == RestStatus.CONFLICT && item.getOpType() == DocWriteRequest.OpType.CREATE) {
+                        //create-only document that already exists, the newer version is kept
+                        conflicts++;
+                        continue;
+                    }
+                    failed.add(item.getId());
+                    retryable |= status == RestStatus.TOO_MANY_REQUESTS || status.getStatus() >= 500;
+                    logger.error("Document with id: " + item.getId() + " failed to " + item.getOpType() + ": " + item.getFailureMessage());
+                }
+            }
+            BulkResult result = new BulkResult(response.getItems().length - failed.size() - conflicts, failed, retryable);
+            logger.info("Bulk request completed in " + response.getTook() + ": " + result);
+            return result;
+        } catch (IOException ex) {
+            logger.error("Error occurred in sending bulk request with " + bulkRequest.numberOfActions() + " action(s): " + ex.getMessage());
+            ex.printStackTrace();
+            return null;
+        }
+    }
+
+    private static void addMirrorRequests(BulkRequest bulkRequest) {
+        //outside the application (benchmarks) there is no repository and nothing to mirror
+        if (planRepository == null) return;
+        String mirror = planRepository.getMirrorIndex();
+        if (mirror == null) return;
+        List<DocWriteRequest<?>> mirrored = new ArrayList<>();
+        //the last request of a document in the bulk decides whether it keeps a tombstone
+        Map<String, Boolean> tombstones = new LinkedHashMap<>();
+        for (DocWriteRequest<?> request : bulkRequest.requests()) {
+            if (!indexName.equals(request.index())) continue;
+            if (request instanceof IndexRequest) {
+                IndexRequest index = (IndexRequest) request;
+                mirrored.add(new IndexRequest(mirror).id(index.id()).routing(index.routing()).source(index.source(), index.getContentType()));
+                tombstones.put(index.routing() + tombstoneSeparator + index.id(), false);
+                tombstones.put(index.routing() + tombstoneSeparator, false);
+            } else if (request instanceof DeleteRequest) {
+                mirrored.add(new DeleteRequest(mirror, request.id()).routing(request.routing()));
+                tombstones.put(request.routing() + tombstoneSeparator + request.id(), true);
+            }
+        }
+        mirrored.forEach(bulkRequest::add);
+        List<String> added = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        tombstones.forEach((tombstone, deleted) -> (deleted ? added : removed).add(tombstone));
+        planRepository.updateMirrorTombstones(added, removed);
+    }
+
+    public static class BulkResult {
+        private final int succeeded;
+        private final List<String> failed;
+        private final boolean retryable;
+
+        BulkResult(int succeeded, List<String> failed, boolean retryable) {
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.retryable = retryable;
+        }
+
+        public int getSucceeded() {
+            return succeeded;
+        }
+
+        public List<String> getFailed() {
+            return failed;
+        }
+
+        public boolean isRetryable() {
+            return retryable;
+        }
+
+        @Override
+        public String toString() {
+            return succeeded + " succeeded, " + failed.size() + " failed" + (failed.isEmpty() ? "" : " " + failed);
+        }
+    }
+
+    /**
+     2.4 how long until a bulk is searchable without an explicit refresh
+     **/
+    public static long refreshIntervalMillis() {
+        return TimeValue.parseTimeValue(refreshInterval, indexRefresh).millis();
+    }
+
+    private static XContentBuilder generateBuilder(JsonNode jsonNode, String parentId, String name, String planId) {
+        return generateBuilder(jsonNode, parentId, name, planId, null);
+    }
+
+    /**
+     planId is the routing of the document, stored so searches can sort on it: the same objectId under two plans
+     is two documents
+     **/
+    private static XContentBuilder generateBuilder(JsonNode jsonNode, String parentId, String name, String planId, List<String> childIds) {
         try {
             XContentBuilder builder = XContentFactory.jsonBuilder();
             builder.startObject();
@@ -162,6 +432,10 @@ public class ElasticsearchService {
                     builder.field(key, jsonNode.get(key).asText());
                 }
             }
+            builder.field(plan_id, planId);
+            if(childIds!=null){
+                builder.array(plan_manifest, childIds.toArray(new String[0]));
+            }
             builder.startObject("plan_join");
             if(parentId==null){
                 builder.field("name", "plan");
@@ -179,10 +453,69 @@ public class ElasticsearchService {
     }
 
     /**
-     3 deleteDocument: query for _routing to delete by documentId
+     3 deleteDocument: remove the plan and the children listed in its manifest with one routed bulk request, no refresh.
+     Plans indexed before the manifest existed fall back to a delete-by-query on _routing.
      **/
     public static String deleteDocument(String documentId) throws IOException {
         if(documentId==null)return null;
+        Map<String, List<String>> manifests = getManifests(Collections.singleton(documentId));
+        if(manifests==null)return null;
+        if(!manifests.containsKey(documentId)){
+            logger.info("Document with id: "+documentId+" not found, nothing to delete.");
+            return "NOT_FOUND";
+        }
+        List<String> childIds = manifests.get(documentId);
+        if(childIds==null){
+            return deleteDocumentByQuery(documentId);
+        }
+        BulkRequest bulkRequest = new BulkRequest();
+        addDeleteRequests(bulkRequest, documentId, childIds);
+        addDeleteRequests(bulkRequest, documentId, Collections.singletonList(documentId));
+        BulkResult result = executeBulk(bulkRequest);
+        return result == null ? null : result.toString();
+    }
+
+    /**
+     3.1 manifests of the given plans with one multi-get: absent key when the plan is not indexed,
+     null value when it was indexed without a manifest. Null when the request or any of its items failed:
+     a failed item says nothing about whether the plan is indexed.
+     **/
+    public static Map<String, List<String>> getManifests(Collection<String> planIds) {
+        Map<String, List<String>> manifests = new HashMap<>();
+        if(planIds.isEmpty())return manifests;
+        MultiGetRequest request = new MultiGetRequest();
+        FetchSourceContext manifestOnly = new FetchSourceContext(true, new String[]{plan_manifest, plan_objid}, null);
+        planIds.forEach(id -> request.add(new MultiGetRequest.Item(indexName, id).routing(id).fetchSourceContext(manifestOnly)));
+        try {
+            for (MultiGetItemResponse item : client.mget(request, RequestOptions.DEFAULT).getResponses()) {
+                if (item.isFailed()) {
+                    logger.error("Error occurred in reading the manifest of " + item.getId() + ". " + item.getFailure().getMessage());
+                    return null;
+                }
+                if (!item.getResponse().isExists()) continue;
+                Object childIds = item.getResponse().getSourceAsMap().get(plan_manifest);
+                List<String> ids = null;
+                if (childIds instanceof List) {
+                    ids = new ArrayList<>();
+                    for (Object id : (List<?>) childIds) ids.add(String.valueOf(id));
+                }
+                manifests.put(item.getId(), ids);
+            }
+            return manifests;
+        } catch (IOException ex) {
+            logger.error("Error occurred in reading manifests of " + planIds + ". " + ex.getMessage());
+            return null;
+        }
+    }
+
+    public static void addDeleteRequests(BulkRequest bulkRequest, String planId, Collection<String> documentIds) {
+        documentIds.forEach(id -> bulkRequest.add(new DeleteRequest(indexName, id).routing(planId)));
+    }
+
+    /**
+     3.2 fallback for plans without manifest: query for _routing to delete by documentId
+     **/
+    public static String deleteDocumentByQuery(String documentId) {
         try {
             DeleteByQueryRequest request = new DeleteByQueryRequest(indexName);
             QueryBuilder queryBuilder = QueryBuilders.matchQuery("_routing", documentId);
@@ -190,6 +523,13 @@ public class ElasticsearchService {
             request.setRefresh(true);
             BulkByScrollResponse response = client.deleteByQuery(request, RequestOptions.DEFAULT);
             logger.info(response.getDeleted()+" Document(s) with id: "+documentId+" and its children deleted.");
+            String mirror = planRepository.getMirrorIndex();
+            if (mirror != null) {
+                planRepository.updateMirrorTombstones(Collections.singletonList(documentId + tombstoneSeparator), Collections.emptyList());
+                DeleteByQueryRequest mirrored = new DeleteByQueryRequest(mirror);
+                mirrored.setQuery(queryBuilder);
+                client.deleteByQuery(mirrored, RequestOptions.DEFAULT);
+            }
             return response.toString();
         }catch (IOException ex){
             logger.error("Error occurred in creating document "+documentId+". "+ex.getMessage());
@@ -0,0 +1,227 @@
+package edu.northeastern.Service;
+
+import com.auth0.jwt.exceptions.TokenExpiredException;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import edu.northeastern.repository.PlanIndexEntry;
+import edu.northeastern.repository.PlanKeys;
+import edu.northeastern.repository.PlanRepository;
+import edu.northeastern.repository.PlanStreamFlattener;
+import edu.northeastern.repository.PlanView;
+import edu.northeastern.repository.PlanWriteBatch;
+import edu.northeastern.utils.ETagUtils;
+import edu.northeastern.utils.JsonSchemaRegistry;
+import edu.northeastern.utils.JwtUtils;
+import edu.northeastern.utils.StreamingSchema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ Loads plans from an NDJSON stream. Plans are parsed, validated and flattened one at a time (PlanStreamFlattener),
+ so an invalid plan is answered on its own line and never reaches a batch, and written to redis in batches of
+ batchSize plans (one MULTI/EXEC per batch), their index messages are published per batch over one channel, and
+ one result line per input plan is written back as soon as its batch is committed. Memory is bounded by one batch.
+ **/
+@Service
+public class PlanBulkService {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    private static final Logger logger = LoggerFactory.getLogger(PlanBulkService.class);
+
+    @Autowired
+    private JwtUtils jwtUtils;
+
+    @Autowired
+    private JsonSchemaRegistry jsonSchemaRegistry;
+
+    @Autowired
+    private ETagUtils eTagUtils;
+
+    @Autowired
+    private RabbitMQService rabbitMQService;
+
+    @Autowired
+    private PlanRepository planRepository;
+
+    @Value("${plan.bulk.batch-size:500}")
+    private int batchSize;
+
+    private final LongAdder created = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     The token is checked once for the whole stream; the body is read and answered on the async response thread
+     **/
+    public ResponseEntity<?> bulkPost(HttpServletRequest request, String tokenHeader) {
+        try {
+            if(!jwtUtils.verifyJWTToken(tokenHeader)){
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid token");
+            }
+        } catch (TokenExpiredException ex){
+            logger.error("The Token has expired. "+ex.getMessage());
+            return new ResponseEntity<>(ex.getMessage(), HttpStatus.UNAUTHORIZED);
+        }
+        StreamingResponseBody body = out -> bulkPost(request.getInputStream(), out);
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    /**
+     Read plans from in and write NDJSON results to out: {"line", "status": 201, "objectId", "etag"} for a stored plan,
+     {"line", "status": 400, "errors"} for an invalid one. A line that is not JSON ends the stream, because the parser
+     cannot resynchronize; the plans read before it are still stored. A batch redis did not store is answered with
+     {"line", "status": 503, "message"} for each of its plans and ends the stream as well.
+     **/
+    public void bulkPost(InputStream in, OutputStream out) throws IOException {
+        JsonGenerator results = mapper.getFactory().createGenerator(out);
+        results.setRootValueSeparator(null);
+        List<PendingPlan> pending = new ArrayList<>(batchSize);
+        Set<String> pendingIds = new HashSet<>();
+        StreamingSchema schema = jsonSchemaRegistry.getStreamingSchema(JsonSchemaRegistry.PLAN_SCHEMA);
+        try (JsonParser parser = mapper.getFactory().createParser(in)) {
+            while (true) {
+                PlanStreamFlattener plan;
+                long line;
+                try {
+                    if (parser.nextToken() == null) break;
+                    line = parser.getTokenLocation().getLineNr();
+                    plan = PlanStreamFlattener.flatten(parser, schema);
+                } catch (JsonProcessingException ex) {
+                    line = parser.getCurrentLocation().getLineNr();
+                    rejected.increment();
+                    writeResult(results, error(line, "Malformed json, stream aborted: " + ex.getOriginalMessage()));
+                    break;
+                }
+                if (!plan.getErrors().isEmpty()) {
+                    rejected.increment();
+                    ObjectNode result = error(line, "requestBody is not valid");
+                    result.putArray("errors").addAll(plan.getErrors());
+                    writeResult(results, result);
+                    continue;
+                }
+                if (!pendingIds.add(plan.getObjectId())) {
+                    //both versions would have their index entries computed against the same stored plan
+                    if (!flush(pending, pendingIds, results)) return;
+                    pendingIds.add(plan.getObjectId());
+                }
+                pending.add(new PendingPlan(line, plan));
+                if (pending.size() >= batchSize && !flush(pending, pendingIds, results)) {
+                    return;
+                }
+            }
+            flush(pending, pendingIds, results);
+        } finally {
+            results.flush();
+        }
+    }
+
+    /**
+     Commit the pending plans and answer them; false when redis did not store them and the stream has to end
+     **/
+    private boolean flush(List<PendingPlan> pending, Set<String> pendingIds, JsonGenerator results) throws IOException {
+        if (pending.isEmpty()) return true;
+        long lastVersion = planRepository.nextVersions(pending.size());
+        long version = lastVersion - pending.size() + 1;
+        PlanWriteBatch batch = new PlanWriteBatch();
+        List<String> messages = new ArrayList<>(pending.size());
+        for (PendingPlan plan : pending) {
+            String objectId = plan.plan.getObjectId();
+            String realId = PlanKeys.object(objectId, plan.plan.getObjectType(), objectId);
+            String body = plan.plan.getBody();
+            long planVersion = version++;
+            plan.etag = eTagUtils.versionEtag(planVersion);
+            messages.add(body);
+            batch.index(PlanIndexEntry.of(realId, plan.plan.getRoot()));
+            plan.plan.queueObjects(batch);
+            batch.put(realId, plan.plan.getRoot());
+            batch.putView(realId, new PlanView(body, plan.etag, planVersion));
+        }
+        try {
+            planRepository.commit(batch);
+        } catch (RuntimeException ex) {
+            logger.error("[BULK] " + pending.size() + " plan(s) not stored: " + ex.getMessage());
+            for (PendingPlan plan : pending) {
+                failed.increment();
+                ObjectNode result = mapper.createObjectNode();
+                result.put("line", plan.line);
+                result.put("status", 503);
+                result.put("objectId", plan.plan.getObjectId());
+                result.put("message", "Plan not stored, stream aborted: " + ex.getMessage());
+                writeResult(results, result);
+            }
+            return false;
+        }
+        rabbitMQService.sendDocuments(messages, "post");
+        logger.info("[BULK] " + pending.size() + " plan(s) stored, " + batch.size() + " redis write(s).");
+
+        for (PendingPlan plan : pending) {
+            created.increment();
+            ObjectNode result = mapper.createObjectNode();
+            result.put("line", plan.line);
+            result.put("status", 201);
+            result.put("objectId", plan.plan.getObjectId());
+            result.put("etag", plan.etag);
+            writeResult(results, result);
+        }
+        results.flush();
+        pending.clear();
+        pendingIds.clear();
+        return true;
+    }
+
+    private static void writeResult(JsonGenerator results, JsonNode result) throws IOException {
+        results.writeTree(result);
+        results.writeRaw('\n');
+    }
+
+    private static ObjectNode error(long line, String message) {
+        ObjectNode result = mapper.createObjectNode();
+        result.put("line", line);
+        result.put("status", 400);
+        result.put("message", message);
+        return result;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("created", created.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("failed", failed.sum());
+        return stats;
+    }
+
+    private static class PendingPlan {
+        private final long line;
+        private final PlanStreamFlattener plan;
+        private String etag;
+
+        PendingPlan(long line, PlanStreamFlattener plan) {
+            this.line = line;
+            this.plan = plan;
+        }
+    }
+}
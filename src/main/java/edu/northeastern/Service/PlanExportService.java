@@ -0,0 +1,124 @@
+package edu.northeastern.Service;
+
+import com.auth0.jwt.exceptions.TokenExpiredException;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import edu.northeastern.repository.PlanKeyPage;
+import edu.northeastern.repository.PlanRepository;
+import edu.northeastern.utils.JwtUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ Dumps every plan as NDJSON. Root keys are walked with SCAN one page at a time, each page is fetched and hydrated
+ with PlanRepository.getHydratedNodes, then written and flushed, so memory holds one page.
+ After every page a checkpoint line {"_cursor": "..."} is written; passing it back as ?cursor= resumes the export
+ after that page. The last line is {"_cursor": "0", "done": true}.
+ **/
+@Service
+public class PlanExportService {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    private static final String cursorField = "_cursor";
+    private static final Logger logger = LoggerFactory.getLogger(PlanExportService.class);
+
+    @Autowired
+    private JwtUtils jwtUtils;
+
+    @Autowired
+    private PlanRepository planRepository;
+
+    @Value("${plan.export.page-size:200}")
+    private int pageSize;
+
+    private final LongAdder exported = new LongAdder();
+
+    public ResponseEntity<?> export(String cursor, Boolean gzip, HttpServletRequest request, String tokenHeader) {
+        try {
+            if(!jwtUtils.verifyJWTToken(tokenHeader)){
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid token");
+            }
+        } catch (TokenExpiredException ex){
+            logger.error("The Token has expired. "+ex.getMessage());
+            return new ResponseEntity<>(ex.getMessage(), HttpStatus.UNAUTHORIZED);
+        }
+        boolean compress = gzip != null ? gzip : acceptsGzip(request);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(NDJSON);
+        if (compress) {
+            headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        StreamingResponseBody body = out -> {
+            if (compress) {
+                try (GZIPOutputStream gzipOut = new GZIPOutputStream(out, true)) {
+                    export(cursor, gzipOut);
+                }
+            } else {
+                export(cursor, out);
+            }
+        };
+        return new ResponseEntity<>(body, headers, HttpStatus.OK);
+    }
+
+    private void export(String start, OutputStream out) throws IOException {
+        JsonGenerator generator = mapper.getFactory().createGenerator(out);
+        generator.setRootValueSeparator(null);
+        String cursor = start;
+        long count = 0;
+        do {
+            PlanKeyPage page = planRepository.scanPlans(cursor, pageSize);
+            //SCAN may repeat a key across pages, within a page it is written once
+            Set<String> unique = new HashSet<>(page.getKeys());
+            List<JsonNode> plans = planRepository.getHydratedNodes(new ArrayList<>(unique));
+            for (JsonNode plan : plans) {
+                generator.writeTree(plan);
+                generator.writeRaw('\n');
+            }
+            count += plans.size();
+            exported.add(plans.size());
+
+            cursor = page.getNext();
+            ObjectNode checkpoint = mapper.createObjectNode();
+            checkpoint.put(cursorField, cursor == null ? "0" : cursor);
+            if (cursor == null) checkpoint.put("done", true);
+            generator.writeTree(checkpoint);
+            generator.writeRaw('\n');
+            generator.flush();
+        } while (cursor != null);
+        logger.info("[EXPORT] " + count + " plan(s) exported, started from cursor " + (start == null ? "0" : start));
+    }
+
+    private static boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        return acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("exported", exported.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,212 @@
+package edu.northeastern.Service;
+
+import com.auth0.jwt.exceptions.TokenExpiredException;
+import com.fasterxml.jackson.databind.JsonNode;
+import edu.northeastern.repository.*;
+import edu.northeastern.utils.ETagUtils;
+import edu.northeastern.utils.JwtUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ Rewrites the plans stored with the flat key layout into the tagged one (see PlanKeys), on a standalone redis, with
+ the application already running with plan.redis.key-layout=tagged. Every flat root is hydrated, flattened again
+ under its own hash tag and written with its view (same ETag and version) in one MULTI that also deletes the old root
+ and view. Flat children may be shared between plans, so they are only deleted once every plan has been migrated,
+ by a SCAN over the keys without hash tag. A plan is not found until it has been migrated: run it in a maintenance
+ window. The migrated keyspace can then be moved into a cluster, e.g. with redis-cli --cluster import.
+ **/
+@Service
+public class PlanKeyMigrationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PlanKeyMigrationService.class);
+    private static final String planPattern = "id_plan_*";
+    private static final String[] orphanPatterns = {"id_*", PlanView.PREFIX + "id_*"};
+
+    @Autowired
+    private JwtUtils jwtUtils;
+
+    @Autowired
+    private ETagUtils eTagUtils;
+
+    @Autowired
+    private PlanRepository planRepository;
+
+    @Value("${plan.migration.page-size:200}")
+    private int pageSize;
+
+    private final ExecutorService jobExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "plan-key-migration"));
+    private final AtomicReference<Progress> current = new AtomicReference<>();
+
+    public ResponseEntity<?> start(String tokenHeader) {
+        try {
+            if(!jwtUtils.verifyJWTToken(tokenHeader)){
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid token");
+            }
+        } catch (TokenExpiredException ex){
+            logger.error("The Token has expired. "+ex.getMessage());
+            return new ResponseEntity<>(ex.getMessage(), HttpStatus.UNAUTHORIZED);
+        }
+        if (!PlanKeys.isTagged()) {
+            return new ResponseEntity<>("Start the application with plan.redis.key-layout=" + PlanKeys.TAGGED + " to migrate to it.", HttpStatus.CONFLICT);
+        }
+        if (planRepository.isCluster()) {
+            return new ResponseEntity<>("Migrate on the standalone redis holding the flat keys, before moving them into the cluster.", HttpStatus.CONFLICT);
+        }
+        Progress running = current.get();
+        if (running != null && !running.isFinished()) {
+            return new ResponseEntity<>(running.toMap(), HttpStatus.CONFLICT);
+        }
+        Progress progress = new Progress();
+        if (!current.compareAndSet(running, progress)) {
+            return new ResponseEntity<>(current.get().toMap(), HttpStatus.CONFLICT);
+        }
+        jobExecutor.submit(() -> run(progress));
+        return new ResponseEntity<>(progress.toMap(), HttpStatus.ACCEPTED);
+    }
+
+    public ResponseEntity<?> progress(String tokenHeader) {
+        try {
+            if(!jwtUtils.verifyJWTToken(tokenHeader)){
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid token");
+            }
+        } catch (TokenExpiredException ex){
+            logger.error("The Token has expired. "+ex.getMessage());
+            return new ResponseEntity<>(ex.getMessage(), HttpStatus.UNAUTHORIZED);
+        }
+        Progress progress = current.get();
+        if (progress == null) {
+            return new ResponseEntity<>("No key migration has run.", HttpStatus.NOT_FOUND);
+        }
+        return ResponseEntity.ok(progress.toMap());
+    }
+
+    private void run(Progress progress) {
+        try {
+            progress.state = "plans";
+            String cursor = null;
+            do {
+                PlanKeyPage page = planRepository.scanKeys(planPattern, cursor, pageSize);
+                cursor = page.getNext();
+                Set<String> flat = new LinkedHashSet<>();
+                page.getKeys().forEach(key -> {
+                    if (!PlanKeys.isTagged(key)) flat.add(key);
+                });
+                if (flat.isEmpty()) continue;
+                List<String> keys = new ArrayList<>(flat);
+                List<JsonNode> plans = planRepository.getProjectedNodes(keys, PlanProjection.ALL);
+                for (int i = 0; i < keys.size(); i++) {
+                    if (plans.get(i) == null) continue;
+                    try {
+                        migratePlan(keys.get(i), plans.get(i), progress);
+                    } catch (RuntimeException ex) {
+                        progress.failed.increment();
+                        logger.error("[MIGRATE] " + keys.get(i) + " not migrated: " + ex.getMessage());
+                    }
+                }
+            } while (cursor != null);
+
+            if (progress.failed.sum() > 0) {
+                throw new IllegalStateException(progress.failed.sum() + " plan(s) not migrated, flat children are kept; run the migration again.");
+            }
+            progress.state = "orphans";
+            for (String pattern : orphanPatterns) {
+                deleteFlatKeys(pattern, progress);
+            }
+            progress.state = "done";
+            logger.info("[MIGRATE] " + progress.toMap());
+        } catch (Exception ex) {
+            progress.state = "failed";
+            progress.error = ex.getMessage();
+            logger.error("[MIGRATE] failed: " + ex.getMessage());
+        } finally {
+            progress.finishedAt = System.currentTimeMillis();
+        }
+    }
+
+    private void migratePlan(String oldKey, JsonNode plan, Progress progress) {
+        String newKey = PlanKeys.plan(plan.get("objectId").asText());
+        PlanWriteBatch batch = new PlanWriteBatch();
+        if (planRepository.getViewForUpdate(newKey) != null) {
+            //written again since the layout changed, the flat copy is older
+            batch.delete(oldKey);
+            batch.delete(PlanView.key(oldKey));
+            planRepository.commit(batch);
+            progress.skipped.increment();
+            return;
+        }
+        PlanView view = planRepository.getViewForUpdate(oldKey);
+        if (view == null) {
+            long version = planRepository.nextVersion();
+            view = new PlanView(plan.toString(), eTagUtils.versionEtag(version), version);
+        }
+        batch.index(PlanIndexEntry.of(newKey, plan));
+        JsonNode root = plan.deepCopy();
+        planRepository.traverseInput(root, batch);
+        batch.put(newKey, root);
+        batch.putView(newKey, view);
+        batch.delete(oldKey);
+        batch.delete(PlanView.key(oldKey));
+        planRepository.commit(batch);
+        progress.plans.increment();
+    }
+
+    private void deleteFlatKeys(String pattern, Progress progress) {
+        String cursor = null;
+        do {
+            PlanKeyPage page = planRepository.scanKeys(pattern, cursor, pageSize);
+            cursor = page.getNext();
+            PlanWriteBatch batch = new PlanWriteBatch();
+            new LinkedHashSet<>(page.getKeys()).forEach(key -> {
+                if (!PlanKeys.isTagged(key)) batch.delete(key);
+            });
+            if (batch.isEmpty()) continue;
+            planRepository.commit(batch);
+            progress.orphans.add(batch.size());
+        } while (cursor != null);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobExecutor.shutdownNow();
+    }
+
+    private static class Progress {
+        private final long startedAt = System.currentTimeMillis();
+        private volatile long finishedAt;
+        private volatile String state = "starting";
+        private volatile String error;
+        private final LongAdder plans = new LongAdder();
+        private final LongAdder skipped = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder orphans = new LongAdder();
+
+        boolean isFinished() {
+            return finishedAt != 0;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("state", state);
+            map.put("plans", plans.sum());
+            map.put("skipped", skipped.sum());
+            map.put("failed", failed.sum());
+            map.put("orphansDeleted", orphans.sum());
+            map.put("elapsedMs", (isFinished() ? finishedAt : System.currentTimeMillis()) - startedAt);
+            if (error != null) map.put("error", error);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package edu.northeastern.Service;
+
+import com.auth0.jwt.exceptions.TokenExpiredException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import edu.northeastern.repository.PlanKeys;
+import edu.northeastern.repository.PlanProjection;
+import edu.northeastern.repository.PlanRepository;
+import edu.northeastern.repository.PlanView;
+import edu.northeastern.utils.ETagUtils;
+import edu.northeastern.utils.JsonUtils;
+import edu.northeastern.utils.JwtUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ Reads several plans in one request: the token is verified once and all views are read in one pipeline, the body and
+ ETag of each in one HMGET so a plan is never returned under the ETag of another write; projections are cut from them.
+ The response is {"plans": [{"objectId", "status", "etag", "plan"}]} in request order, status per plan:
+ 200, 304 when the ETag given for it still matches, 404 when it does not exist.
+ **/
+@Service
+public class PlanMultiGetService {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final Logger logger = LoggerFactory.getLogger(PlanMultiGetService.class);
+
+    @Autowired
+    private JwtUtils jwtUtils;
+
+    @Autowired
+    private ETagUtils eTagUtils;
+
+    @Autowired
+    private PlanService planService;
+
+    @Autowired
+    private PlanRepository planRepository;
+
+    @Value("${plan.mget.max-ids:100}")
+    private int maxIds;
+
+    private final LongAdder requested = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+    private final LongAdder notFound = new LongAdder();
+
+    /**
+     GET /plan?ids=a,b,c
+     **/
+    public ResponseEntity<?> getByIds(String ids, String fields, Integer depth, String tokenHeader) {
+        List<String> planIds = new ArrayList<>();
+        for (String id : ids.split(",")) {
+            if (!id.trim().isEmpty()) planIds.add(id.trim());
+        }
+        return multiGet(planIds, Collections.emptyMap(), fields, depth, tokenHeader);
+    }
+
+    /**
+     POST /plan/_mget with {"ids": [...], "etags": {"planId": "\"3\""}}, etags optional
+     **/
+    public ResponseEntity<?> getByIdsFromBody(String requestBody, String fields, Integer depth, String tokenHeader) {
+        JsonNode body;
+        try {
+            body = mapper.readTree(requestBody);
+        } catch (JsonProcessingException ex) {
+            return new ResponseEntity<>("Malformed json: " + ex.getOriginalMessage(), HttpStatus.BAD_REQUEST);
+        }
+        if (!body.path("ids").isArray()) {
+            return new ResponseEntity<>("requestBody must have an ids array", HttpStatus.BAD_REQUEST);
+        }
+        List<String> planIds = new ArrayList<>();
+        body.get("ids").forEach(id -> planIds.add(id.asText()));
+        Map<String, String> etags = new HashMap<>();
+        body.path("etags").fields().forEachRemaining(e -> etags.put(e.getKey(), e.getValue().asText()));
+        return multiGet(planIds, etags, fields, depth, tokenHeader);
+    }
+
+    private ResponseEntity<?> multiGet(List<String> requestedIds, Map<String, String> knownEtags, String fields, Integer depth, String tokenHeader) {
+        try {
+            if(!jwtUtils.verifyJWTToken(tokenHeader)){
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid token");
+            }
+        } catch (TokenExpiredException ex){
+            logger.error("The Token has expired. "+ex.getMessage());
+            return new ResponseEntity<>(ex.getMessage(), HttpStatus.UNAUTHORIZED);
+        }
+        List<String> planIds = new ArrayList<>(new LinkedHashSet<>(requestedIds));
+        if (planIds.isEmpty() || planIds.size() > maxIds) {
+            return new ResponseEntity<>("Between 1 and " + maxIds + " ids are required", HttpStatus.BAD_REQUEST);
+        }
+        PlanProjection projection;
+        try {
+            projection = PlanProjection.parse(fields, depth);
+        } catch (IllegalArgumentException ex) {
+            return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+        requested.add(planIds.size());
+
+        List<String> realIds = new ArrayList<>(planIds.size());
+        planIds.forEach(id -> realIds.add(PlanKeys.plan(id)));
+        List<PlanView> views = planRepository.getViews(realIds);
+
+        //plans the client already has are not parsed
+        Map<String, ObjectNode> results = new HashMap<>();
+        int sent = 0;
+        for (int i = 0; i < planIds.size(); i++) {
+            String planId = planIds.get(i);
+            PlanView view = views.get(i);
+            if (view == null) {
+                //stored before views existed
+                view = planService.loadView(realIds.get(i));
+            }
+            if (view == null) {
+                notFound.increment();
+                ObjectNode missing = result(planId, HttpStatus.NOT_FOUND, null);
+                missing.put("message", "Object does not exist.");
+                results.put(planId, missing);
+                continue;
+            }
+            String etag = etag(view.getEtag(), projection);
+            String known = knownEtags.get(planId);
+            if (known != null && eTagUtils.weakMatches(known, etag)) {
+                notModified.increment();
+                results.put(planId, result(planId, HttpStatus.NOT_MODIFIED, etag));
+                continue;
+            }
+            JsonNode plan = JsonUtils.stringToNode(view.getBody());
+            ObjectNode found = result(planId, HttpStatus.OK, etag);
+            found.set("plan", projection.isAll() ? plan : projection.apply(plan, realIds.get(i)));
+            results.put(planId, found);
+            sent++;
+        }
+        logger.info("[MGET] " + planIds.size() + " plan(s) requested, " + sent + " sent.");
+
+        ObjectNode response = mapper.createObjectNode();
+        ArrayNode entries = response.putArray("plans");
+        planIds.forEach(id -> entries.add(results.get(id)));
+        return ResponseEntity.ok(response);
+    }
+
+    private String etag(String etag, PlanProjection projection) {
+        return projection.isAll() ? etag : eTagUtils.weakEtag(etag, projection.fingerprint());
+    }
+
+    private static ObjectNode result(String planId, HttpStatus status, String etag) {
+        ObjectNode result = mapper.createObjectNode();
+        result.put("objectId", planId);
+        result.put("status", status.value());
+        if (etag != null) result.put("etag", etag);
+        return result;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("requested", requested.sum());
+        stats.put("notModified", notModified.sum());
+        stats.put("notFound", notFound.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,216 @@
+package edu.northeastern.Service;
+
+import com.auth0.jwt.exceptions.TokenExpiredException;
+import com.fasterxml.jackson.databind.JsonNode;
+import edu.northeastern.repository.PlanKeyPage;
+import edu.northeastern.repository.PlanRepository;
+import edu.northeastern.utils.JwtUtils;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ Rebuilds the search index from redis without taking search down. A new indexplan_vN is created without replicas
+ and refresh, every plan is streamed out of redis with SCAN and bulk-indexed by a pool of workers, then replicas and
+ refresh are restored and the indexplan alias is swapped to the new index in one atomic update.
+ During the load, writes of the indexer are mirrored into the new index. Documents loaded from redis are create-only,
+ so a newer version mirrored by the indexer is never overwritten by an older snapshot; documents deleted during the
+ load may still be created from a snapshot read before the delete, so they are deleted again once every page is
+ loaded, before the alias moves (see ElasticsearchService.purgeMirrorTombstones).
+ The alias only moves when every page was loaded and no document failed; otherwise the old index stays live.
+ **/
+@Service
+public class PlanReindexService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PlanReindexService.class);
+    private static final String indexName = "indexplan";
+    private static final int maxAttempts = 3;
+
+    @Autowired
+    private JwtUtils jwtUtils;
+
+    @Autowired
+    private PlanRepository planRepository;
+
+    @Value("${plan.reindex.workers:4}")
+    private int workers;
+
+    @Value("${plan.reindex.page-size:200}")
+    private int pageSize;
+
+    private final ExecutorService jobExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "plan-reindex"));
+    private final AtomicReference<Progress> current = new AtomicReference<>();
+
+    public ResponseEntity<?> start(String tokenHeader) {
+        try {
+            if(!jwtUtils.verifyJWTToken(tokenHeader)){
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid token");
+            }
+        } catch (TokenExpiredException ex){
+            logger.error("The Token has expired. "+ex.getMessage());
+            return new ResponseEntity<>(ex.getMessage(), HttpStatus.UNAUTHORIZED);
+        }
+        Progress running = current.get();
+        if (running != null && !running.isFinished()) {
+            return new ResponseEntity<>(running.toMap(), HttpStatus.CONFLICT);
+        }
+        Progress progress = new Progress();
+        if (!current.compareAndSet(running, progress)) {
+            return new ResponseEntity<>(current.get().toMap(), HttpStatus.CONFLICT);
+        }
+        jobExecutor.submit(() -> run(progress));
+        return new ResponseEntity<>(progress.toMap(), HttpStatus.ACCEPTED);
+    }
+
+    public ResponseEntity<?> progress(String tokenHeader) {
+        try {
+            if(!jwtUtils.verifyJWTToken(tokenHeader)){
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid token");
+            }
+        } catch (TokenExpiredException ex){
+            logger.error("The Token has expired. "+ex.getMessage());
+            return new ResponseEntity<>(ex.getMessage(), HttpStatus.UNAUTHORIZED);
+        }
+        Progress progress = current.get();
+        if (progress == null) {
+            return new ResponseEntity<>("No reindex has run.", HttpStatus.NOT_FOUND);
+        }
+        return ResponseEntity.ok(progress.toMap());
+    }
+
+    private void run(Progress progress) {
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        //bounds the pages held in memory: fetched but not yet indexed
+        Semaphore inFlight = new Semaphore(workers * 2);
+        try {
+            String target = ElasticsearchService.createVersionedIndex(true);
+            progress.target = target;
+            ElasticsearchService.setMirrorIndex(target);
+            progress.state = "loading";
+            logger.info("[REINDEX] loading " + target);
+
+            List<Future<?>> pages = new ArrayList<>();
+            String cursor = null;
+            do {
+                PlanKeyPage page = planRepository.scanPlans(cursor, pageSize);
+                cursor = page.getNext();
+                if (page.getKeys().isEmpty()) continue;
+                List<String> keys = new ArrayList<>(new LinkedHashSet<>(page.getKeys()));
+                inFlight.acquire();
+                pages.add(pool.submit(() -> {
+                    try {
+                        indexPage(target, keys, progress);
+                    } finally {
+                        inFlight.release();
+                    }
+                }));
+                //a failed page aborts the load: get() throws its exception
+                for (Iterator<Future<?>> done = pages.iterator(); done.hasNext(); ) {
+                    Future<?> loaded = done.next();
+                    if (!loaded.isDone()) continue;
+                    loaded.get();
+                    done.remove();
+                }
+            } while (cursor != null);
+            for (Future<?> page : pages) {
+                page.get();
+            }
+            if (progress.failed.sum() > 0) {
+                throw new IllegalStateException(progress.failed.sum() + " document(s) could not be loaded into " + target);
+            }
+            progress.purged = ElasticsearchService.purgeMirrorTombstones(target);
+
+            progress.state = "finishing";
+            ElasticsearchService.finishLoad(target);
+            List<String> previous = ElasticsearchService.swapAlias(target);
+            progress.state = "done";
+            logger.info("[REINDEX] alias " + indexName + " now on " + target + ", previous: " + previous + ". " + progress.toMap());
+        } catch (Exception ex) {
+            progress.state = "failed";
+            progress.error = ex.getMessage();
+            logger.error("[REINDEX] failed, alias " + indexName + " left unchanged: " + ex.getMessage());
+        } finally {
+            ElasticsearchService.setMirrorIndex(null);
+            progress.finishedAt = System.currentTimeMillis();
+            pool.shutdownNow();
+        }
+    }
+
+    private void indexPage(String target, List<String> keys, Progress progress) {
+        List<JsonNode> plans = planRepository.getHydratedNodes(keys);
+        BulkRequest bulkRequest = new BulkRequest();
+        for (JsonNode plan : plans) {
+            ElasticsearchService.addIndexRequests(bulkRequest, plan, null, null, indexName);
+        }
+        for (DocWriteRequest<?> request : bulkRequest.requests()) {
+            ((IndexRequest) request).index(target).opType(DocWriteRequest.OpType.CREATE);
+        }
+        for (int attempt = 1; ; attempt++) {
+            ElasticsearchService.BulkResult result = ElasticsearchService.executeBulk(bulkRequest);
+            if (result != null && !result.isRetryable()) {
+                progress.plans.add(plans.size());
+                progress.documents.add(result.getSucceeded());
+                progress.failed.add(result.getFailed().size());
+                return;
+            }
+            if (attempt >= maxAttempts) {
+                throw new IllegalStateException("Bulk request failed " + attempt + " times: " + result);
+            }
+            try {
+                Thread.sleep(1000L * attempt);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while retrying a bulk request.");
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobExecutor.shutdownNow();
+    }
+
+    private static class Progress {
+        private final long startedAt = System.currentTimeMillis();
+        private volatile long finishedAt;
+        private volatile String state = "starting";
+        private volatile String target;
+        private volatile String error;
+        private volatile int purged;
+        private final LongAdder plans = new LongAdder();
+        private final LongAdder documents = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+
+        boolean isFinished() {
+            return finishedAt != 0;
+        }
+
+        Map<String, Object> toMap() {
+            long elapsed = (isFinished() ? finishedAt : System.currentTimeMillis()) - startedAt;
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("state", state);
+            map.put("target", target);
+            map.put("plans", plans.sum());
+            map.put("documents", documents.sum());
+            map.put("failed", failed.sum());
+            map.put("purgedDeletes", purged);
+            map.put("elapsedMs", elapsed);
+            map.put("plansPerSecond", elapsed == 0 ? 0 : plans.sum() * 1000 / elapsed);
+            if (error != null) map.put("error", error);
+            return map;
+        }
+    }
+}
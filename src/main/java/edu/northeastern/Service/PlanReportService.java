@@ -0,0 +1,217 @@
+package edu.northeastern.Service;
+
+import com.auth0.jwt.exceptions.TokenExpiredException;
+import edu.northeastern.repository.PlanRepository;
+import edu.northeastern.utils.JwtUtils;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.join.aggregations.Children;
+import org.elasticsearch.join.aggregations.JoinAggregationBuilders;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.histogram.Histogram;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.metrics.Avg;
+import org.elasticsearch.search.aggregations.metrics.Percentile;
+import org.elasticsearch.search.aggregations.metrics.Percentiles;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ Copay and deductible statistics of the cost shares, grouped by the _org or planType of their plan.
+ The aggregation starts from the plan documents and walks down the plan_join relation with children aggregations.
+ Results are cached by query together with the index generation, which the indexer bumps after every change and again
+ once the next refresh made the change searchable,
+ so a dashboard polling an unchanged index costs one redis GET.
+ **/
+@Service
+public class PlanReportService {
+
+    private static final String indexName = "indexplan";
+    private static final String joinField = "plan_join";
+    private static final String groups = "groups";
+    private static final String costShares = "costShares";
+    private static final String services = "services";
+    private static final String[] metrics = {"copay", "deductible"};
+    private static final double[] percents = {50, 90, 99};
+    private static final int maxGroups = 100;
+
+    private static final Logger logger = LoggerFactory.getLogger(PlanReportService.class);
+
+    @Autowired
+    private RestHighLevelClient client;
+
+    @Autowired
+    private JwtUtils jwtUtils;
+
+    @Autowired
+    private PlanRepository planRepository;
+
+    @Value("${plan.report.cache.max-size:256}")
+    private int cacheSize;
+
+    @Value("${plan.report.cache.max-age-seconds:300}")
+    private long maxAgeSeconds;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private Map<String, CachedReport> cache;
+
+    @PostConstruct
+    public void init() {
+        cache = new LinkedHashMap<String, CachedReport>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedReport> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     scope is "plan" for planCostShares or "service" for planserviceCostShares, groupBy is "org" or "planType"
+     **/
+    public ResponseEntity<?> costShareReport(String scope, String groupBy, String org, String planType, Integer interval, String tokenHeader) {
+        try {
+            if(!jwtUtils.verifyJWTToken(tokenHeader)){
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid token");
+            }
+            if (scope == null) scope = "plan";
+            if (groupBy == null) groupBy = "org";
+            if (!scope.equals("plan") && !scope.equals("service")) {
+                return new ResponseEntity<>("scope must be plan or service", HttpStatus.BAD_REQUEST);
+            }
+            if (!groupBy.equals("org") && !groupBy.equals("planType")) {
+                return new ResponseEntity<>("groupBy must be org or planType", HttpStatus.BAD_REQUEST);
+            }
+            int histogramInterval = interval == null || interval <= 0 ? 100 : interval;
+
+            String key = scope + "|" + groupBy + "|" + org + "|" + planType + "|" + histogramInterval;
+            long generation = planRepository.indexGeneration();
+            CachedReport cached;
+            synchronized (cache) {
+                cached = cache.get(key);
+            }
+            if (cached != null && cached.generation == generation
+                    && System.currentTimeMillis() - cached.createdAt < maxAgeSeconds * 1000) {
+                hits.increment();
+                return ResponseEntity.ok(cached.report);
+            }
+            misses.increment();
+
+            Map<String, Object> report = runReport(scope, groupBy, org, planType, histogramInterval);
+            report.put("generation", generation);
+            synchronized (cache) {
+                cache.put(key, new CachedReport(generation, report));
+            }
+            return ResponseEntity.ok(report);
+        } catch (IOException ex) {
+            logger.error("Error occurred in running report: " + ex.getMessage());
+            return new ResponseEntity<>("Reporting is unavailable: " + ex.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+        } catch (TokenExpiredException ex){
+            logger.error("The Token has expired. "+ex.getMessage());
+            return new ResponseEntity<>(ex.getMessage(), HttpStatus.UNAUTHORIZED);
+        }
+    }
+
+    private Map<String, Object> runReport(String scope, String groupBy, String org, String planType, int interval) throws IOException {
+        BoolQueryBuilder query = QueryBuilders.boolQuery().filter(QueryBuilders.termQuery(joinField, "plan"));
+        if (org != null) query.filter(QueryBuilders.termQuery("_org", org));
+        if (planType != null) query.filter(QueryBuilders.termQuery("planType", planType));
+
+        AggregationBuilder costShareAgg = JoinAggregationBuilders.children(costShares,
+                scope.equals("plan") ? "planCostShares" : "planserviceCostShares");
+        for (String metric : metrics) {
+            costShareAgg.subAggregation(AggregationBuilders.avg(metric + "_avg").field(metric));
+            costShareAgg.subAggregation(AggregationBuilders.percentiles(metric + "_percentiles").field(metric).percentiles(percents));
+            costShareAgg.subAggregation(AggregationBuilders.histogram(metric + "_histogram").field(metric).interval(interval));
+        }
+        AggregationBuilder groupAgg = AggregationBuilders.terms(groups)
+                .field(groupBy.equals("org") ? "_org" : "planType")
+                .size(maxGroups)
+                .subAggregation(scope.equals("plan") ? costShareAgg
+                        : JoinAggregationBuilders.children(services, "linkedPlanServices").subAggregation(costShareAgg));
+
+        SearchSourceBuilder source = new SearchSourceBuilder().query(query).size(0).aggregation(groupAgg);
+        SearchResponse response = client.search(new SearchRequest(indexName).source(source), RequestOptions.DEFAULT);
+
+        List<Map<String, Object>> rows = new ArrayList<>();
+        Terms terms = response.getAggregations().get(groups);
+        for (Terms.Bucket bucket : terms.getBuckets()) {
+            Aggregations aggregations = bucket.getAggregations();
+            if (scope.equals("service")) {
+                aggregations = ((Children) aggregations.get(services)).getAggregations();
+            }
+            Children children = aggregations.get(costShares);
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("key", bucket.getKeyAsString());
+            row.put("plans", bucket.getDocCount());
+            row.put("costShares", children.getDocCount());
+            for (String metric : metrics) {
+                row.put(metric, metricReport(children.getAggregations(), metric));
+            }
+            rows.add(row);
+        }
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("scope", scope);
+        report.put("groupBy", groupBy);
+        report.put("groups", rows);
+        return report;
+    }
+
+    private static Map<String, Object> metricReport(Aggregations aggregations, String metric) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        Avg avg = aggregations.get(metric + "_avg");
+        result.put("avg", Double.isFinite(avg.getValue()) ? avg.getValue() : null);
+        Map<String, Object> percentiles = new LinkedHashMap<>();
+        for (Percentile percentile : (Percentiles) aggregations.get(metric + "_percentiles")) {
+            percentiles.put(String.valueOf(percentile.getPercent()), Double.isFinite(percentile.getValue()) ? percentile.getValue() : null);
+        }
+        result.put("percentiles", percentiles);
+        List<Map<String, Object>> histogram = new ArrayList<>();
+        for (Histogram.Bucket bucket : ((Histogram) aggregations.get(metric + "_histogram")).getBuckets()) {
+            Map<String, Object> bar = new LinkedHashMap<>();
+            bar.put("from", bucket.getKey());
+            bar.put("count", bucket.getDocCount());
+            histogram.add(bar);
+        }
+        result.put("histogram", histogram);
+        return result;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        synchronized (cache) {
+            stats.put("size", cache.size());
+        }
+        return stats;
+    }
+
+    private static class CachedReport {
+        private final long generation;
+        private final long createdAt = System.currentTimeMillis();
+        private final Map<String, Object> report;
+
+        CachedReport(long generation, Map<String, Object> report) {
+            this.generation = generation;
+            this.report = report;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package edu.northeastern.Service;
+
+import com.auth0.jwt.exceptions.TokenExpiredException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.northeastern.utils.JwtUtils;
+import org.apache.lucene.search.join.ScoreMode;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.join.query.JoinQueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ Search over the plan_join index. Every filter is declared on the document type holding the field and is
+ lifted to the requested type through has_child / has_parent along the join relations of mapping.json.
+ Paging uses search_after, so deep pages cost the same as the first one. An object shared by several plans is indexed
+ once per plan under the same objectId, so the sort is objectId then planId (the routing), and the cursor carries both.
+ **/
+@Service
+public class PlanSearchService {
+
+    public static final String PLAN = "plan";
+    public static final String PLAN_COST_SHARES = "planCostShares";
+    public static final String LINKED_PLAN_SERVICES = "linkedPlanServices";
+    public static final String LINKED_SERVICE = "linkedService";
+    public static final String PLAN_SERVICE_COST_SHARES = "planserviceCostShares";
+
+    private static final String indexName = "indexplan";
+    private static final String joinField = "plan_join";
+    private static final int defaultSize = 20;
+    private static final int maxSize = 100;
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     child relation -> parent relation, as in mapping.json
+     **/
+    private static final Map<String, String> PARENTS = new HashMap<>();
+    static {
+        PARENTS.put(PLAN_COST_SHARES, PLAN);
+        PARENTS.put(LINKED_PLAN_SERVICES, PLAN);
+        PARENTS.put(LINKED_SERVICE, LINKED_PLAN_SERVICES);
+        PARENTS.put(PLAN_SERVICE_COST_SHARES, LINKED_PLAN_SERVICES);
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(PlanSearchService.class);
+
+    @Autowired
+    private RestHighLevelClient client;
+
+    @Autowired
+    private JwtUtils jwtUtils;
+
+    public ResponseEntity<?> search(String type, String org, String planType, String serviceName, Integer copayBelow,
+                                    Integer serviceCopayBelow, String fields, Integer size, String after, String tokenHeader) {
+        try {
+            if(!jwtUtils.verifyJWTToken(tokenHeader)){
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid token");
+            }
+            if (type == null) type = PLAN;
+            if (!type.equals(PLAN) && !PARENTS.containsKey(type)) {
+                return new ResponseEntity<>("Unknown document type: " + type, HttpStatus.BAD_REQUEST);
+            }
+
+            BoolQueryBuilder query = QueryBuilders.boolQuery().filter(QueryBuilders.termQuery(joinField, type));
+            if (org != null) {
+                query.filter(QueryBuilders.termQuery("_org", org));
+            }
+            if (planType != null) {
+                query.filter(lift(type, PLAN, QueryBuilders.termQuery("planType", planType)));
+            }
+            if (serviceName != null) {
+                query.filter(lift(type, LINKED_SERVICE, QueryBuilders.matchQuery("name", serviceName)));
+            }
+            if (copayBelow != null) {
+                query.filter(lift(type, PLAN_COST_SHARES, QueryBuilders.rangeQuery("copay").lt(copayBelow)));
+            }
+            if (serviceCopayBelow != null) {
+                query.filter(lift(type, PLAN_SERVICE_COST_SHARES, QueryBuilders.rangeQuery("copay").lt(serviceCopayBelow)));
+            }
+
+            int pageSize = size == null ? defaultSize : Math.max(1, Math.min(size, maxSize));
+            SearchSourceBuilder source = new SearchSourceBuilder()
+                    .query(query)
+                    .size(pageSize)
+                    .sort("objectId", SortOrder.ASC)
+                    .sort("planId", SortOrder.ASC)
+                    .trackTotalHits(false);
+            String[] includes = fields == null ? null : fields.split(",");
+            source.fetchSource(includes, new String[]{"child_ids"});
+            if (after != null) {
+                Object[] sortValues = decodeCursor(after);
+                if (sortValues == null) {
+                    return new ResponseEntity<>("Invalid cursor: " + after, HttpStatus.BAD_REQUEST);
+                }
+                source.searchAfter(sortValues);
+            }
+
+            SearchResponse response = client.search(new SearchRequest(indexName).source(source), RequestOptions.DEFAULT);
+            List<Map<String, Object>> hits = new ArrayList<>();
+            String next = null;
+            for (SearchHit hit : response.getHits().getHits()) {
+                Map<String, Object> document = new LinkedHashMap<>();
+                document.put("id", hit.getId());
+                document.put("source", hit.getSourceAsMap());
+                hits.add(document);
+                next = encodeCursor(hit.getSortValues());
+            }
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("hits", hits);
+            result.put("next", hits.size() == pageSize ? next : null);
+            return ResponseEntity.ok(result);
+        } catch (IOException ex) {
+            logger.error("Error occurred in searching plans: " + ex.getMessage());
+            return new ResponseEntity<>("Search is unavailable: " + ex.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+        } catch (TokenExpiredException ex){
+            logger.error("The Token has expired. "+ex.getMessage());
+            return new ResponseEntity<>(ex.getMessage(), HttpStatus.UNAUTHORIZED);
+        }
+    }
+
+    /**
+     The sort values of the last hit as an opaque url-safe cursor
+     **/
+    static String encodeCursor(Object[] sortValues) throws JsonProcessingException {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(mapper.writeValueAsBytes(sortValues));
+    }
+
+    /**
+     null when cursor was not made by encodeCursor
+     **/
+    static Object[] decodeCursor(String cursor) {
+        try {
+            Object[] sortValues = mapper.readValue(Base64.getUrlDecoder().decode(cursor), Object[].class);
+            return sortValues.length == 2 ? sortValues : null;
+        } catch (IOException | IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    /**
+     Turn a query on documents of type target into a query on documents of type from:
+     has_child while target is below from, has_parent while it is not
+     **/
+    static QueryBuilder lift(String from, String target, QueryBuilder query) {
+        if (from.equals(target)) {
+            return query;
+        }
+        List<String> path = pathToRoot(target);
+        int index = path.indexOf(from);
+        if (index > 0) {
+            String child = path.get(index - 1);
+            return JoinQueryBuilders.hasChildQuery(child, lift(child, target, query), ScoreMode.None);
+        }
+        String parent = PARENTS.get(from);
+        return JoinQueryBuilders.hasParentQuery(parent, lift(parent, target, query), false);
+    }
+
+    private static List<String> pathToRoot(String type) {
+        List<String> path = new ArrayList<>();
+        for (String current = type; current != null; current = PARENTS.get(current)) {
+            path.add(current);
+        }
+        return path;
+    }
+}
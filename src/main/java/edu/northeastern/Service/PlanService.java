@@ -6,9 +6,21 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import edu.northeastern.excpetions.InvalidPatchException;
+import edu.northeastern.excpetions.PreconditionFailedException;
 import edu.northeastern.excpetions.ResourceNotFoundException;
+import edu.northeastern.repository.PlanDiff;
+import edu.northeastern.repository.PlanIndexEntry;
+import edu.northeastern.repository.PlanKeyPage;
+import edu.northeastern.repository.PlanKeys;
+import edu.northeastern.repository.PlanProjection;
 import edu.northeastern.repository.PlanRepository;
+import edu.northeastern.repository.PlanStreamFlattener;
+import edu.northeastern.repository.PlanView;
+import edu.northeastern.repository.PlanWriteBatch;
 import edu.northeastern.utils.ETagUtils;
+import edu.northeastern.utils.JsonPatchUtils;
+import edu.northeastern.utils.JsonSchemaRegistry;
 import edu.northeastern.utils.JsonUtils;
 import edu.northeastern.utils.JwtUtils;
 import org.slf4j.Logger;
@@ -16,10 +28,12 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 
 import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -30,7 +44,7 @@ public class PlanService {
     private JwtUtils jwtUtils;
 
     @Autowired
-    private JsonUtils jsonUtils;
+    private JsonSchemaRegistry jsonSchemaRegistry;
 
     @Autowired
     private ETagUtils eTagUtils;
@@ -42,6 +56,8 @@ public class PlanService {
     private PlanRepository planRepository;
 
     private static final Logger logger = LoggerFactory.getLogger(PlanService.class);
+    private static final int defaultPageSize = 20;
+    private static final int maxPageSize = 100;
 
     public ResponseEntity<?> post(String request, String tokenHeader) {
         try {
@@ -49,29 +65,34 @@ public class PlanService {
                 logger.error("tokenHeader is not valid: "+ tokenHeader);
                 return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid token");
             }
-            JsonNode requestBodyJson = new ObjectMapper().readTree(request);
-            if(!jsonUtils.validateWithJsonSchema(requestBodyJson, "/schema.json")){
+            //parsed, validated and flattened in one pass, see PlanStreamFlattener
+            PlanStreamFlattener plan = PlanStreamFlattener.flatten(request, jsonSchemaRegistry.getStreamingSchema(JsonSchemaRegistry.PLAN_SCHEMA));
+            if(!plan.getErrors().isEmpty()){
                 logger.error("requestBody is not valid: "+ request);
-                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+                return invalidBody(plan.getErrors());
             }
 
-            String objectId = requestBodyJson.get("objectId").textValue();
-            String objectType = requestBodyJson.get("objectType").textValue();
-            String realId = "id_" + objectType + "_" + objectId;
+            String objectId = plan.getObjectId();
+            String realId = PlanKeys.object(objectId, plan.getObjectType(), objectId);
 
             logger.info("[POST] planId: ("+realId + ") is generated in process of creating a new plan");
 
-            planRepository.traverseInput(requestBodyJson);
-            planRepository.putValue(realId, requestBodyJson.toString());
+            long version = planRepository.nextVersion();
+            String etag = eTagUtils.versionEtag(version);
+            PlanWriteBatch batch = new PlanWriteBatch();
+            batch.index(PlanIndexEntry.of(realId, plan.getRoot()));
+            plan.queueObjects(batch);
+            batch.put(realId, plan.getRoot());
+            batch.putView(realId, new PlanView(plan.getBody(), etag, version));
+            planRepository.commit(batch);
             rabbitMQService.sendDocument(request, "post");
 
             Map<String, String> response = new HashMap<>();
             response.put("message", "Created data with key:"+objectId);
             HttpHeaders headers = new HttpHeaders();
-            String value = planRepository.getValue(realId);
-            headers.set("ETag", eTagUtils.generateEtag(value));
+            headers.set("ETag", etag);
             return new ResponseEntity<>(response,headers,HttpStatus.CREATED);
-        } catch (JsonProcessingException ex){
+        } catch (IOException ex){
             logger.error("Fail to parse JsonNode with the request body: "+request);
             ex.printStackTrace();
         }  catch (TokenExpiredException ex){
@@ -83,30 +104,38 @@ public class PlanService {
 
 
 
-    public ResponseEntity<?> getById(String planId, HttpServletRequest request, String tokenHeader)  {
+    public ResponseEntity<?> getById(String planId, String fields, Integer depth, HttpServletRequest request, String tokenHeader)  {
         try{
             if(!jwtUtils.verifyJWTToken(tokenHeader)){
                 return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid token");
             }
-            String realId = "id_"+"plan"+"_"+planId;
-            String value = planRepository.getValue(realId);
-            if ((value==null) || value.equals(Optional.empty())){
+            String realId = PlanKeys.plan(planId);
+            PlanProjection projection;
+            try {
+                projection = PlanProjection.parse(fields, depth);
+            } catch (IllegalArgumentException ex) {
+                return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+            }
+            if (!projection.isAll()) {
+                return getProjected(realId, projection, request);
+            }
+            //a client holding a newer ETag than a lagging replica is not sent back an older plan
+            PlanView view = loadView(realId, false, eTagUtils.newestVersion(request.getHeader("If-None-Match")));
+            if (view == null){
                 throw new ResourceNotFoundException("Object does not exist.");
             }
 
-            String ifNoneMatch = request.getHeader("If-None-Match");
-            String resourceETag = eTagUtils.generateEtag(value);
-            if (ifNoneMatch != null && resourceETag!=null && ifNoneMatch.equals(resourceETag)) {
-                return new ResponseEntity<>(HttpStatus.NOT_MODIFIED);
+            if (eTagUtils.matchesIfNoneMatch(request, view.getEtag())) {
+                HttpHeaders headers = new HttpHeaders();
+                headers.set("ETag", view.getEtag());
+                return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
             }
-            JsonNode node = JsonUtils.stringToNode(value);
-            planRepository.populateNestedData(node, null);
 
-            //set headers with etag
+            //set headers with etag, the stored body is already the hydrated json
             HttpHeaders headers = new HttpHeaders();
-            String ETag = eTagUtils.generateEtag(value);
-            headers.set("ETag", ETag);
-            return new ResponseEntity<>(node, headers, HttpStatus.OK);
+            headers.set("ETag", view.getEtag());
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            return new ResponseEntity<>(view.getBody(), headers, HttpStatus.OK);
         }catch (ResourceNotFoundException ex){
             logger.error(ex.getMessage());
             Map<String, String> response = new HashMap<>();
@@ -119,20 +148,54 @@ public class PlanService {
         }
     }
 
+    /**
+     Only the requested part of the plan, hydrated without fetching the unselected objects. The version of the view is
+     read first for the ETag; when the plan changes while it is hydrated, or has no view yet, the part is cut from the
+     view instead, whose body and ETag are read together.
+     **/
+    private ResponseEntity<?> getProjected(String realId, PlanProjection projection, HttpServletRequest request) {
+        HttpHeaders headers = new HttpHeaders();
+        long version = planRepository.getViewVersion(realId);
+        if (version > 0) {
+            String etag = eTagUtils.weakEtag(eTagUtils.versionEtag(version), projection.fingerprint());
+            headers.set("ETag", etag);
+            if (eTagUtils.matchesIfNoneMatch(request, etag)) {
+                return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+            }
+            JsonNode plan = planRepository.getProjectedNode(realId, projection, version);
+            if (plan != null) {
+                headers.setContentType(MediaType.APPLICATION_JSON);
+                return new ResponseEntity<>(plan.toString(), headers, HttpStatus.OK);
+            }
+        }
+        PlanView view = loadView(realId, false, eTagUtils.newestVersion(request.getHeader("If-None-Match")));
+        if (view == null) {
+            throw new ResourceNotFoundException("Object does not exist.");
+        }
+        String etag = eTagUtils.weakEtag(view.getEtag(), projection.fingerprint());
+        headers.set("ETag", etag);
+        if (eTagUtils.matchesIfNoneMatch(request, etag)) {
+            return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+        }
+        JsonNode plan = projection.apply(JsonUtils.stringToNode(view.getBody()), realId);
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return new ResponseEntity<>(plan.toString(), headers, HttpStatus.OK);
+    }
+
     public ResponseEntity<?> deleteById(String planId, HttpServletRequest request, String tokenHeader) {
         try{
             if(!jwtUtils.verifyJWTToken(tokenHeader)){
                 return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid token");
             }
 
-            String realId = "id_"+"plan"+"_"+planId;
-            String value = planRepository.getValue(realId);
-            if (value.equals(null) || value.equals(Optional.empty())){
+            String realId = PlanKeys.plan(planId);
+            PlanView view = loadView(realId, true);
+            if (view == null){
                 throw new ResourceNotFoundException("Object does not exist.");
             }
             logger.info("[DELETE] planId: ("+realId + ") is fetched in process of deleting "+planId);
 
-            if(!(eTagUtils.verifyEtag(request, value))){
+            if(!(eTagUtils.verifyEtag(request, view.getEtag()))){
                 return new ResponseEntity<>("eTag is empty or not matched", HttpStatus.BAD_REQUEST);
             }
 
@@ -157,82 +220,184 @@ public class PlanService {
             if(!jwtUtils.verifyJWTToken(tokenHeader)){
                 return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid token");
             }
-            String realId = "id_"+"plan"+"_"+planId;
-            String oldPlanStr = planRepository.getValue(realId);
-            //validate etag
-            if(!(eTagUtils.verifyEtag(request, oldPlanStr))){
-                return new ResponseEntity<>("Correct eTag required before patchign. ETag is empty or not matched", HttpStatus.BAD_REQUEST);
-            }
-            //validate body schema
-            JsonNode newNode = new ObjectMapper().readTree(requestBody);
-            if(!jsonUtils.validateWithJsonSchema(newNode, "/patchSchema.json")){
-                return new ResponseEntity<>("requestBody is not valid: "+ request, HttpStatus.BAD_REQUEST);
-            }
+            String realId = PlanKeys.plan(planId);
+            PlanView oldView = loadView(realId, true);
             //validate plan id
-            if (oldPlanStr.equals(null) || oldPlanStr.equals(Optional.empty())){
+            if (oldView == null){
                 throw new ResourceNotFoundException("Object to be patched does not exist.");
             }
-
-            JsonNode oldPlanNode = JsonUtils.stringToNode(oldPlanStr);
-            planRepository.populateNestedData(oldPlanNode, null);
-            oldPlanStr = oldPlanNode.toString();
-
-            ArrayNode existLinkedPlanServices = (ArrayNode) oldPlanNode.get("linkedPlanServices");
-            existLinkedPlanServices.addAll((ArrayNode) newNode.get("linkedPlanServices"));
-
-            //filter the repeated
-            Set<JsonNode> tempNonRepeatedSet = new HashSet<>();
-            Set<String> objectIds = new HashSet<>();
-            for (JsonNode node : existLinkedPlanServices) {
-                Iterator<Map.Entry<String, JsonNode>> iterator = node.fields();
-                while (iterator.hasNext()) {
-                    Map.Entry<String, JsonNode> entry = iterator.next();
-                    String k = entry.getKey();
-                    String v = entry.getValue().toString();
-                    if (k.equals("objectId")) {//find every objectId in linkedPlanServices
-                        if (!objectIds.contains(v)) {//add for the non-repeated
-                            tempNonRepeatedSet.add(node);
-                            objectIds.add(v);
-                        }
-                    }
-                }
+            //validate etag
+            if(eTagUtils.matchesIfNoneMatch(request, oldView.getEtag())){
+                return new ResponseEntity<>("Plan matches If-None-Match", HttpStatus.PRECONDITION_FAILED);
             }
-            existLinkedPlanServices.removeAll();
-            if (!tempNonRepeatedSet.isEmpty()){
-                tempNonRepeatedSet.forEach(s -> {
-                    existLinkedPlanServices.add(s);
-                });
+            if(request.getHeader("If-Match")==null){
+                return new ResponseEntity<>("Correct eTag required before patching: If-Match is missing", HttpStatus.PRECONDITION_REQUIRED);
+            }
+            if(!(eTagUtils.verifyEtag(request, oldView.getEtag()))){
+                return new ResponseEntity<>("If-Match does not match the current eTag " + oldView.getEtag(), HttpStatus.PRECONDITION_FAILED);
             }
 
+            JsonNode newNode = new ObjectMapper().readTree(requestBody);
+            JsonNode oldPlanNode = JsonUtils.stringToNode(oldView.getBody());
             ObjectNode patchNewNode;
-            if (newNode.isObject()) {
-                patchNewNode = (ObjectNode) oldPlanNode;
+            String contentType = request.getContentType() == null ? "" : request.getContentType().toLowerCase();
+            if (contentType.startsWith(JsonPatchUtils.MERGE_PATCH) || contentType.startsWith(JsonPatchUtils.JSON_PATCH)) {
+                JsonNode patched = contentType.startsWith(JsonPatchUtils.MERGE_PATCH)
+                        ? JsonPatchUtils.mergePatch(oldPlanNode, newNode)
+                        : JsonPatchUtils.applyPatch(oldPlanNode, newNode);
+                //the result must still be a whole plan, with the same identity
+                List<JsonNode> schemaErrors = jsonSchemaRegistry.validate(patched, JsonSchemaRegistry.PLAN_SCHEMA);
+                if(!schemaErrors.isEmpty()){
+                    return invalidBody(schemaErrors);
+                }
+                if (!patched.path("objectId").equals(oldPlanNode.path("objectId")) || !patched.path("objectType").equals(oldPlanNode.path("objectType"))) {
+                    return new ResponseEntity<>("objectId and objectType of a plan cannot be patched", HttpStatus.BAD_REQUEST);
+                }
+                patchNewNode = (ObjectNode) patched;
             } else {
-                patchNewNode = new ObjectMapper().convertValue(newNode, ObjectNode.class);
+                //validate body schema
+                List<JsonNode> schemaErrors = jsonSchemaRegistry.validate(newNode, JsonSchemaRegistry.PATCH_SCHEMA);
+                if(!schemaErrors.isEmpty()){
+                    return invalidBody(schemaErrors);
+                }
+                patchNewNode = oldPlanNode.deepCopy();
+                mergePatch(patchNewNode, newNode);
+            }
+
+            //diff the patched plan against the stored one, only the objects that changed are written and indexed
+            PlanDiff diff = PlanDiff.between(realId, oldPlanNode, patchNewNode, planRepository::traverseInput);
+            if (diff.isEmpty()) {
+                Map<String, String> response = new HashMap<>();
+                response.put("message", "Plan with ObjectId: "+planId+" unchanged.");
+                HttpHeaders headers = new HttpHeaders();
+                headers.set("ETag", oldView.getEtag());
+                return new ResponseEntity<>(response,headers,HttpStatus.OK);
             }
 
-            patchNewNode.set("linkedPlanServices", existLinkedPlanServices);
-            planRepository.traverseInput(patchNewNode);
-            planRepository.putValue(realId, patchNewNode.toString());
-            logger.info("New Job Message Queue will be received: Operation: " + "patch" + ". Message:" + patchNewNode);
-            JsonNode node = JsonUtils.stringToNode(planRepository.getValue(realId));
-            planRepository.populateNestedData(node, null);
-            rabbitMQService.sendDocument(node.toString(), "post");
+            String body = patchNewNode.toString();
+            long version = planRepository.nextVersion();
+            String etag = eTagUtils.versionEtag(version);
+            PlanWriteBatch batch = new PlanWriteBatch();
+            //written only if nobody else wrote the plan since its view was read
+            batch.expectVersion(realId, oldView.getVersion());
+            diff.addTo(batch);
+            batch.putView(realId, new PlanView(body, etag, version));
+            batch.index(PlanIndexEntry.of(realId, patchNewNode));
+            planRepository.commit(batch);
+            logger.info("[PATCH] planId: (" + realId + ") " + diff.getChangedKeys().size() + " object(s) written, " + diff.getRemovedKeys().size() + " removed, " + diff.getDetachedKeys().size() + " detached.");
+            rabbitMQService.sendDocument(diff.toDelta().toString(), "delta");
 
 
             Map<String, String> response = new HashMap<>();
             response.put("message", "Plan with ObjectId: "+planId+" updated.");
             HttpHeaders headers = new HttpHeaders();
-            String newValue = planRepository.getValue(realId);
-            headers.set("ETag", eTagUtils.generateEtag(newValue));
+            headers.set("ETag", etag);
             return new ResponseEntity<>(response,headers,HttpStatus.OK);
         }catch (ResourceNotFoundException ex) {
             ex.printStackTrace();
             return new ResponseEntity<>(ex.getMessage(), HttpStatus.NOT_FOUND);
+        }catch (PreconditionFailedException ex) {
+            logger.info("[PATCH] concurrent update of plan " + planId + ": " + ex.getMessage());
+            return new ResponseEntity<>("Plan was modified concurrently, fetch it again before patching", HttpStatus.PRECONDITION_FAILED);
+        }catch (InvalidPatchException ex) {
+            return new ResponseEntity<>(ex.getMessage(), HttpStatus.UNPROCESSABLE_ENTITY);
         }catch (JsonProcessingException ex){
             logger.error("Fail to parse JsonNode with the request body: "+request);
             ex.printStackTrace();
             return new ResponseEntity<>(ex.getMessage(), HttpStatus.NOT_FOUND);
         }
     }
+
+    /**
+     Apply the patch to the hydrated plan: in arrays of objects an element whose objectId is already stored replaces
+     the stored one and any other element is appended, every other field replaces the stored value.
+     The objectId and objectType of the plan itself never change.
+     **/
+    private static void mergePatch(ObjectNode plan, JsonNode patch) {
+        patch.fields().forEachRemaining(e -> {
+            String field = e.getKey();
+            JsonNode value = e.getValue();
+            if (field.equals("objectId") || field.equals("objectType")) return;
+            JsonNode stored = plan.get(field);
+            if (value.isArray() && stored != null && stored.isArray()) {
+                ArrayNode merged = (ArrayNode) stored;
+                for (JsonNode element : value) {
+                    int index = indexOfObjectId(merged, element.path("objectId").asText(null));
+                    if (index < 0) {
+                        merged.add(element);
+                    } else {
+                        merged.set(index, element);
+                    }
+                }
+            } else {
+                plan.set(field, value);
+            }
+        });
+    }
+
+    private static int indexOfObjectId(ArrayNode array, String objectId) {
+        if (objectId == null) return -1;
+        for (int i = 0; i < array.size(); i++) {
+            if (objectId.equals(array.get(i).path("objectId").asText(null))) return i;
+        }
+        return -1;
+    }
+
+    /**
+     One page of plans from the secondary indexes, oldest creationDate first unless order=desc.
+     The roots of the page are fetched with one MGET and hydrated together.
+     **/
+    public ResponseEntity<?> listPlans(String org, String planType, String after, Integer size, String order, String tokenHeader) {
+        try {
+            if(!jwtUtils.verifyJWTToken(tokenHeader)){
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid token");
+            }
+            int pageSize = size == null ? defaultPageSize : Math.max(1, Math.min(size, maxPageSize));
+            PlanKeyPage page = planRepository.listPlans(org, planType, after, pageSize, "desc".equalsIgnoreCase(order));
+            List<JsonNode> plans = planRepository.getHydratedNodes(page.getKeys());
+
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("plans", plans);
+            response.put("next", page.getNext());
+            return ResponseEntity.ok(response);
+        } catch (TokenExpiredException ex){
+            logger.error("The Token has expired. "+ex.getMessage());
+            return new ResponseEntity<>(ex.getMessage(), HttpStatus.UNAUTHORIZED);
+        }
+    }
+
+    PlanView loadView(String realId) {
+        return loadView(realId, false, 0);
+    }
+
+    private PlanView loadView(String realId, boolean forUpdate) {
+        return loadView(realId, forUpdate, 0);
+    }
+
+    /**
+     Read the materialized view of the plan. Plans stored before views existed are hydrated once and backfilled.
+     forUpdate reads it from the primary, bypassing the near cache and the replicas, for the ETag checks of writes.
+     minVersion: see PlanRepository.getView
+     **/
+    private PlanView loadView(String realId, boolean forUpdate, long minVersion) {
+        PlanView view = forUpdate ? planRepository.getViewForUpdate(realId) : planRepository.getView(realId, minVersion);
+        if (view != null) return view;
+        JsonNode node = planRepository.getNode(realId);
+        if (node == null) return null;
+        planRepository.populateNestedData(node, null);
+        long version = planRepository.nextVersion();
+        view = new PlanView(node.toString(), eTagUtils.versionEtag(version), version);
+        PlanWriteBatch batch = new PlanWriteBatch();
+        batch.putView(realId, view);
+        batch.index(PlanIndexEntry.of(realId, node));
+        planRepository.commit(batch);
+        return view;
+    }
+
+    private ResponseEntity<?> invalidBody(List<JsonNode> schemaErrors) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("message", "requestBody is not valid");
+        response.put("errors", schemaErrors);
+        return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+    }
 }
@@ -1,16 +1,32 @@
 package edu.northeastern.Service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import edu.northeastern.repository.PlanKeys;
+import edu.northeastern.repository.PlanRepository;
+import org.elasticsearch.action.bulk.BulkRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.rabbit.support.ListenerExecutionFailedException;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 @Service
 public class RabbitMQService {
@@ -18,57 +34,305 @@ public class RabbitMQService {
 
     private final ElasticsearchService elasticsearchService;
 
+    private final PlanRepository planRepository;
+
     private static final Logger logger = LoggerFactory.getLogger(RabbitMQService.class);
 
-    public RabbitMQService(RabbitTemplate rabbitTemplate, ElasticsearchService elasticsearchService) {
+    public RabbitMQService(RabbitTemplate rabbitTemplate, ElasticsearchService elasticsearchService, PlanRepository planRepository) {
         this.rabbitTemplate = rabbitTemplate;
         this.elasticsearchService = elasticsearchService;
+        this.planRepository = planRepository;
     }
 
     public void sendDocument(String message, String operation) {
-        ObjectNode request = new ObjectMapper().createObjectNode();
+        ObjectNode request = mapper.createObjectNode();
         request.put(messageField, message);
         request.put(operationField, operation);
         rabbitTemplate.convertAndSend("planQueue_exchange", "planQueue_routing_key", request);
     }
 
+    /**
+     Publish one job message per entry over a single channel
+     **/
+    public void sendDocuments(List<String> messages, String operation) {
+        if (messages.isEmpty()) return;
+        rabbitTemplate.invoke(operations -> {
+            for (String message : messages) {
+                ObjectNode request = mapper.createObjectNode();
+                request.put(messageField, message);
+                request.put(operationField, operation);
+                operations.convertAndSend("planQueue_exchange", "planQueue_routing_key", request);
+            }
+            return null;
+        });
+    }
+
+    private static final ObjectMapper mapper = new ObjectMapper();
     private static final String messageField = "message";
     private static final String operationField = "operation";
     private static final String operationPost = "post";
     private static final String operationDelete = "delete";
     private static final String operationPatch = "patch";
+    private static final String operationDelta = "delta";
     private static final String indexName="indexplan";
 
-    @RabbitListener(queues = {"planQueue"})
-    public void consumerReceiveDocument(ObjectNode jobMessage){
+    private final LongAdder received = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder invalid = new LongAdder();
+
+    @Value("${plan.queue.concurrency:0}")
+    private int concurrency;
+
+    private int workers;
+    private ExecutorService shardPool;
+    private ScheduledExecutorService generationPool;
+
+    /**
+     plan.queue.concurrency workers index the shards of a batch in parallel, one per core when it is 0
+     **/
+    @PostConstruct
+    public void init() {
+        workers = concurrency > 0 ? concurrency : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threads = new AtomicInteger();
+        shardPool = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "plan-index-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        generationPool = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "plan-index-generation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("Indexing planQueue batches with " + workers + " worker(s).");
+    }
+
+    @PreDestroy
+    public void close() {
+        shardPool.shutdown();
+        generationPool.shutdown();
+    }
+
+    private void bumpIndexGeneration() {
         try {
-            String message = jobMessage.get(messageField).asText();
-            String operation = jobMessage.get(operationField).asText();
-            logger.info("New Job Message Queue received: Operation: " + operation + ". Message:" + message);
-
-            switch (operation){
-                case operationPost:
-                    String postResult = elasticsearchService.postDocument(new ObjectMapper().readTree(message), null, null, indexName);
-                    logger.info("Operation "+operation +" completed with result: " + postResult);
-                    break;
-                case operationDelete:
-                    String deleteResult = elasticsearchService.deleteDocument(message);
-                    logger.info("Operation "+operation+" completed with result: " + deleteResult);
-                    break;
-                case operationPatch:
-                    String patchResult = elasticsearchService.postDocument(new ObjectMapper().readTree(message), null, null, indexName);
-                    logger.info("Operation "+operation +" completed with result: " + patchResult);
-                default:
-                    throw new IOException(operation);
+            planRepository.bumpIndexGeneration();
+        } catch (RuntimeException ex) {
+            logger.error("Error occurred in bumping the index generation: " + ex.getMessage());
+        }
+    }
+
+    /**
+     Index a batch of job messages. The batch is the coalescing window: only the latest state of each plan is indexed,
+     a post superseded by a later post is coalesced and a post followed by a delete is dropped.
+     Patch deltas are applied in order on top of the plan's latest post in the batch, or of its indexed documents.
+     The plans of the batch are sharded by planId over the workers, each shard with its own bulk request.
+     Throwing makes the container retry the batch (see RabbitMQConfig); the batch is acked only when every shard succeeded.
+     **/
+    @RabbitListener(queues = {"planQueue"}, containerFactory = "batchListenerFactory")
+    public void consumerReceiveDocuments(List<ObjectNode> jobMessages){
+        logger.info("New Job Message batch received: " + jobMessages.size() + " message(s).");
+        received.add(jobMessages.size());
+        Map<String, PendingPlan> latest = new LinkedHashMap<>();
+        for (ObjectNode jobMessage : jobMessages) {
+            try {
+                String message = jobMessage.get(messageField).asText();
+                String operation = jobMessage.get(operationField).asText();
+
+                switch (operation){
+                    case operationPost:
+                    case operationPatch:
+                        JsonNode plan = mapper.readTree(message);
+                        String planId = plan.get("objectId").asText();
+                        PendingPlan previous = latest.get(planId);
+                        boolean deleteFirst = false;
+                        if (previous != null) {
+                            if (previous.isDelete()) {
+                                deleteFirst = true;
+                            } else {
+                                coalesced.increment();
+                                deleteFirst = previous.deleteFirst;
+                            }
+                        }
+                        latest.put(planId, new PendingPlan(plan, deleteFirst));
+                        break;
+                    case operationDelta:
+                        JsonNode delta = mapper.readTree(message);
+                        String deltaPlanId = delta.get("objectId").asText();
+                        PendingPlan base = latest.get(deltaPlanId);
+                        if (base == null) {
+                            base = new PendingPlan(null, false);
+                            latest.put(deltaPlanId, base);
+                        } else if (base.isDelete()) {
+                            //a deleted plan cannot be patched
+                            dropped.increment();
+                            break;
+                        }
+                        base.deltas.add(delta);
+                        break;
+                    case operationDelete:
+                        PendingPlan pending = latest.get(message);
+                        if (pending != null && !pending.isDelete()) {
+                            dropped.increment();
+                        }
+                        latest.put(message, new PendingPlan(null, true));
+                        break;
+                    default:
+                        invalid.increment();
+                        logger.error("Unidentified Operation Type detected: "+ operation);
+                }
+            } catch (JsonProcessingException ex){
+                invalid.increment();
+                logger.error("Unable to process message as JsonNode:"+ ex.getMessage());
+            } catch (NullPointerException ex){
+                invalid.increment();
+                logger.error("NullPointerException"+ ex.getMessage());
             }
-        } catch (JsonProcessingException ex){
-            logger.error("Unable to process message as JsonNode:"+ ex.getMessage());
-        } catch (IOException ex) {
-            logger.error("Unidentified Operation Type detected: "+ ex.getMessage());
-        } catch (ListenerExecutionFailedException ex){
-            logger.error("Message Queue failed to execute.. "+ ex.getMessage());
-        } catch (NullPointerException ex){
-            logger.error("NullPointerException"+ ex.getMessage());
+        }
+
+        if (latest.isEmpty()) return;
+        //the messages of one plan all go to the same shard, so each plan is still indexed in order
+        List<Map<String, PendingPlan>> shards = new ArrayList<>();
+        for (int i = 0; i < Math.min(workers, latest.size()); i++) {
+            shards.add(new LinkedHashMap<>());
+        }
+        latest.forEach((planId, pending) -> shards.get(Math.floorMod(planId.hashCode(), shards.size())).put(planId, pending));
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (Map<String, PendingPlan> shard : shards) {
+            results.add(shardPool.submit(() -> indexShard(shard)));
+        }
+        boolean changed = false;
+        RuntimeException failure = null;
+        for (Future<Boolean> result : results) {
+            try {
+                changed |= result.get();
+            } catch (ExecutionException ex) {
+                failure = ex.getCause() instanceof RuntimeException ? (RuntimeException) ex.getCause()
+                        : new ListenerExecutionFailedException("Shard failed, batch will be retried", ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                failure = new ListenerExecutionFailedException("Interrupted, batch will be retried", ex);
+            }
+        }
+        if (failure != null) throw failure;
+        if (changed) {
+            //cached reports computed before this batch are stale now, but searches only see the batch after the next
+            //refresh: a report cached in between would be kept under the new generation, so bump it again by then
+            planRepository.bumpIndexGeneration();
+            generationPool.schedule(this::bumpIndexGeneration, ElasticsearchService.refreshIntervalMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     Index the plans of one shard with one bulk request; returns whether the index changed
+     **/
+    private boolean indexShard(Map<String, PendingPlan> latest) {
+        //manifests of the indexed plans: documents to delete, and children a new version no longer has
+        Map<String, List<String>> manifests = elasticsearchService.getManifests(latest.keySet());
+        if (manifests == null) {
+            throw new ListenerExecutionFailedException("Unable to read manifests, batch will be retried", new IOException("elasticsearch unreachable"));
+        }
+        BulkRequest bulkRequest = new BulkRequest();
+        boolean deletedByQuery = false;
+        for (Map.Entry<String, PendingPlan> entry : latest.entrySet()) {
+            String planId = entry.getKey();
+            PendingPlan pending = entry.getValue();
+            boolean indexed = manifests.containsKey(planId);
+            List<String> oldIds = manifests.get(planId);
+            if (pending.isDelete()) {
+                if (!indexed) continue;
+                if (oldIds == null) {
+                    deleteByQuery(planId);
+                    deletedByQuery = true;
+                    continue;
+                }
+                elasticsearchService.addDeleteRequests(bulkRequest, planId, oldIds);
+                elasticsearchService.addDeleteRequests(bulkRequest, planId, Collections.singletonList(planId));
+            } else if (pending.plan == null) {
+                if (oldIds == null) {
+                    //nothing to apply the deltas to: not indexed yet, or indexed without manifest
+                    List<JsonNode> current = planRepository.getHydratedNodes(Collections.singletonList(PlanKeys.plan(planId)));
+                    if (current.isEmpty()) continue;
+                    if (indexed) {
+                        deleteByQuery(planId);
+                        deletedByQuery = true;
+                    }
+                    elasticsearchService.addIndexRequests(bulkRequest, current.get(0), null, null, indexName);
+                    continue;
+                }
+                applyDeltas(bulkRequest, pending, oldIds);
+            } else {
+                if (pending.deleteFirst && indexed && oldIds == null) {
+                    deleteByQuery(planId);
+                    deletedByQuery = true;
+                }
+                List<String> newIds = elasticsearchService.addIndexRequests(bulkRequest, pending.plan, null, null, indexName);
+                if (oldIds != null) {
+                    Set<String> stale = new HashSet<>(oldIds);
+                    newIds.forEach(stale::remove);
+                    elasticsearchService.addDeleteRequests(bulkRequest, planId, stale);
+                }
+                applyDeltas(bulkRequest, pending, newIds.subList(1, newIds.size()));
+            }
+        }
+        boolean flushed = flush(bulkRequest);
+        return flushed || deletedByQuery;
+    }
+
+    private void applyDeltas(BulkRequest bulkRequest, PendingPlan pending, List<String> childIds) {
+        for (JsonNode delta : pending.deltas) {
+            childIds = elasticsearchService.addDeltaRequests(bulkRequest, delta, childIds);
+        }
+    }
+
+    /**
+     Plans indexed before the manifest existed
+     **/
+    private void deleteByQuery(String planId) {
+        String deleteResult = elasticsearchService.deleteDocumentByQuery(planId);
+        if (deleteResult == null) {
+            throw new ListenerExecutionFailedException("Delete failed, batch will be retried", new IOException(planId));
+        }
+        logger.info("Operation "+operationDelete+" completed with result: " + deleteResult);
+    }
+
+    private boolean flush(BulkRequest bulkRequest) {
+        if (bulkRequest.numberOfActions() == 0) return false;
+        ElasticsearchService.BulkResult result = elasticsearchService.executeBulk(bulkRequest);
+        if (result == null || result.isRetryable()) {
+            throw new ListenerExecutionFailedException("Bulk request failed, batch will be retried",
+                    new IOException(result == null ? "elasticsearch unreachable" : result.toString()));
+        }
+        logger.info("Bulk operation completed with result: " + result);
+        return true;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("received", received.sum());
+        stats.put("coalesced", coalesced.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("invalid", invalid.sum());
+        stats.put("workers", workers);
+        return stats;
+    }
+
+    /**
+     Latest state of a plan within a batch: the plan to index and the deltas to apply after it, or neither for a delete.
+     deleteFirst is set when a delete was superseded by a re-post, so the old documents are removed before the new ones are indexed.
+     **/
+    private static class PendingPlan {
+        private final JsonNode plan;
+        private final boolean deleteFirst;
+        private final List<JsonNode> deltas = new ArrayList<>();
+
+        PendingPlan(JsonNode plan, boolean deleteFirst) {
+            this.plan = plan;
+            this.deleteFirst = deleteFirst;
+        }
+
+        boolean isDelete() {
+            return plan == null && deltas.isEmpty();
         }
     }
 }
@@ -3,8 +3,12 @@ package edu.northeastern.config;
 import org.springframework.amqp.core.AmqpTemplate;
 import org.springframework.amqp.core.BindingBuilder;
 import org.springframework.amqp.core.TopicExchange;
+import org.springframework.amqp.rabbit.config.RetryInterceptorBuilder;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.retry.RejectAndDontRequeueRecoverer;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -14,9 +18,62 @@ import org.springframework.amqp.support.converter.MessageConverter;
 
 @Configuration
 public class RabbitMQConfig {
+
+    @Value("${plan.queue.batch-size:100}")
+    private int batchSize;
+
+    @Value("${plan.queue.receive-timeout-ms:200}")
+    private long receiveTimeoutMs;
+
+    @Value("${plan.queue.prefetch:250}")
+    private int prefetch;
+
+    @Value("${plan.queue.single-active-consumer:false}")
+    private boolean singleActiveConsumer;
+
+    @Value("${plan.queue.retry.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${plan.queue.retry.initial-interval-ms:1000}")
+    private long initialIntervalMs;
+
+    @Value("${plan.queue.retry.multiplier:2.0}")
+    private double multiplier;
+
+    @Value("${plan.queue.retry.max-interval-ms:10000}")
+    private long maxIntervalMs;
+
+    private static final String deadLetterExchange = "planQueue_dlx";
+    private static final String deadLetterQueue = "planQueue_dlq";
+    private static final String deadLetterRoutingKey = "planQueue_dead";
+
+    /**
+     With several application instances, single-active-consumer keeps one consumer on the queue across all of them.
+     Batches that still fail after the retries are dead-lettered to planQueue_dlq.
+     RabbitMQ refuses to redeclare an existing queue with other arguments, so changing them needs the queue recreated.
+     **/
     @Bean
     public Queue queue() {
-        return new Queue("planQueue");
+        QueueBuilder queue = QueueBuilder.durable("planQueue")
+                .deadLetterExchange(deadLetterExchange)
+                .deadLetterRoutingKey(deadLetterRoutingKey);
+        if (singleActiveConsumer) queue.singleActiveConsumer();
+        return queue.build();
+    }
+
+    @Bean
+    public Queue deadLetterQueue() {
+        return QueueBuilder.durable(deadLetterQueue).build();
+    }
+
+    @Bean
+    public DirectExchange deadLetterExchange() {
+        return new DirectExchange(deadLetterExchange);
+    }
+
+    @Bean
+    public Binding deadLetterBinding() {
+        return BindingBuilder.bind(deadLetterQueue()).to(deadLetterExchange()).with(deadLetterRoutingKey);
     }
 
     @Bean
@@ -42,4 +99,36 @@ public class RabbitMQConfig {
         return rabbitTemplate;
     }
 
+    /**
+     planQueue has one consumer per instance: messages of one plan (post, patch deltas, delete) must be indexed in the
+     order they were published, and the child manifests are read-modify-written, so batches never run in parallel.
+     Within a batch the work scales with plan.queue.concurrency: RabbitMQService shards it by planId over its workers.
+     The consumer receives up to batchSize messages; receiveTimeoutMs is how long it polls for the next one,
+     a partial batch is delivered as soon as no message arrives within it.
+     The whole batch is acked when the listener returns. When it throws, it is retried in place up to maxAttempts times
+     with exponential backoff, then rejected without requeue, to the dead letter queue: a poison batch (a delete that
+     always fails, unreadable manifests) never blocks the queue. Move its messages back to planQueue once fixed.
+     **/
+    @Bean
+    public SimpleRabbitListenerContainerFactory batchListenerFactory(ConnectionFactory connectionFactory) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        factory.setConnectionFactory(connectionFactory);
+        factory.setMessageConverter(converter());
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setReceiveTimeout(receiveTimeoutMs);
+        factory.setConcurrentConsumers(1);
+        factory.setMaxConcurrentConsumers(1);
+        factory.setPrefetchCount(Math.max(prefetch, batchSize));
+        factory.setAcknowledgeMode(AcknowledgeMode.AUTO);
+        factory.setAdviceChain(RetryInterceptorBuilder.stateless()
+                .maxAttempts(maxAttempts)
+                .backOffOptions(initialIntervalMs, multiplier, maxIntervalMs)
+                .recoverer(new RejectAndDontRequeueRecoverer())
+                .build());
+        factory.setDefaultRequeueRejected(false);
+        return factory;
+    }
+
 }
@@ -1,5 +1,12 @@
 package edu.northeastern.controller;
 
+import edu.northeastern.Service.PlanBulkService;
+import edu.northeastern.Service.PlanExportService;
+import edu.northeastern.Service.PlanKeyMigrationService;
+import edu.northeastern.Service.PlanMultiGetService;
+import edu.northeastern.Service.PlanReindexService;
+import edu.northeastern.Service.PlanReportService;
+import edu.northeastern.Service.PlanSearchService;
 import edu.northeastern.Service.PlanService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
@@ -14,14 +21,122 @@ public class PlanController {
     @Autowired
     private PlanService planService;
 
+    @Autowired
+    private PlanSearchService planSearchService;
+
+    @Autowired
+    private PlanReportService planReportService;
+
+    @Autowired
+    private PlanBulkService planBulkService;
+
+    @Autowired
+    private PlanExportService planExportService;
+
+    @Autowired
+    private PlanReindexService planReindexService;
+
+    @Autowired
+    private PlanMultiGetService planMultiGetService;
+
+    @Autowired
+    private PlanKeyMigrationService planKeyMigrationService;
+
     @PostMapping
     public ResponseEntity<?> createPlan(@RequestBody String request, @RequestHeader("Authorization") String tokenHeader) {
         return planService.post(request, tokenHeader);
     }
 
+    @GetMapping
+    public ResponseEntity<?> listPlans(@RequestParam(required = false) String org,
+                                       @RequestParam(required = false) String planType,
+                                       @RequestParam(required = false) String after,
+                                       @RequestParam(required = false) Integer size,
+                                       @RequestParam(required = false) String order,
+                                       @RequestHeader("Authorization") String tokenHeader) {
+        return planService.listPlans(org, planType, after, size, order, tokenHeader);
+    }
+
+    @GetMapping(params = "ids")
+    public ResponseEntity<?> getPlans(@RequestParam String ids,
+                                      @RequestParam(required = false) String fields,
+                                      @RequestParam(required = false) Integer depth,
+                                      @RequestHeader("Authorization") String tokenHeader) {
+        return planMultiGetService.getByIds(ids, fields, depth, tokenHeader);
+    }
+
+    @PostMapping("/_mget")
+    public ResponseEntity<?> multiGetPlans(@RequestBody String request,
+                                      @RequestParam(required = false) String fields,
+                                      @RequestParam(required = false) Integer depth,
+                                      @RequestHeader("Authorization") String tokenHeader) {
+        return planMultiGetService.getByIdsFromBody(request, fields, depth, tokenHeader);
+    }
+
+    @PostMapping("/_bulk")
+    public ResponseEntity<?> bulkCreatePlans(HttpServletRequest request, @RequestHeader("Authorization") String tokenHeader) {
+        return planBulkService.bulkPost(request, tokenHeader);
+    }
+
+    @GetMapping("/_export")
+    public ResponseEntity<?> exportPlans(@RequestParam(required = false) String cursor,
+                                         @RequestParam(required = false) Boolean gzip,
+                                         HttpServletRequest request,
+                                         @RequestHeader("Authorization") String tokenHeader) {
+        return planExportService.export(cursor, gzip, request, tokenHeader);
+    }
+
+    @PostMapping("/_reindex")
+    public ResponseEntity<?> startReindex(@RequestHeader("Authorization") String tokenHeader) {
+        return planReindexService.start(tokenHeader);
+    }
+
+    @GetMapping("/_reindex")
+    public ResponseEntity<?> reindexProgress(@RequestHeader("Authorization") String tokenHeader) {
+        return planReindexService.progress(tokenHeader);
+    }
+
+    @PostMapping("/_migrate-keys")
+    public ResponseEntity<?> migrateKeys(@RequestHeader("Authorization") String tokenHeader) {
+        return planKeyMigrationService.start(tokenHeader);
+    }
+
+    @GetMapping("/_migrate-keys")
+    public ResponseEntity<?> keyMigrationProgress(@RequestHeader("Authorization") String tokenHeader) {
+        return planKeyMigrationService.progress(tokenHeader);
+    }
+
+    @GetMapping("/search")
+    public ResponseEntity<?> searchPlans(@RequestParam(required = false) String type,
+                                         @RequestParam(required = false) String org,
+                                         @RequestParam(required = false) String planType,
+                                         @RequestParam(required = false) String name,
+                                         @RequestParam(required = false) Integer copayBelow,
+                                         @RequestParam(required = false) Integer serviceCopayBelow,
+                                         @RequestParam(required = false) String fields,
+                                         @RequestParam(required = false) Integer size,
+                                         @RequestParam(required = false) String after,
+                                         @RequestHeader("Authorization") String tokenHeader) {
+        return planSearchService.search(type, org, planType, name, copayBelow, serviceCopayBelow, fields, size, after, tokenHeader);
+    }
+
+    @GetMapping("/report")
+    public ResponseEntity<?> costShareReport(@RequestParam(required = false) String scope,
+                                             @RequestParam(required = false) String groupBy,
+                                             @RequestParam(required = false) String org,
+                                             @RequestParam(required = false) String planType,
+                                             @RequestParam(required = false) Integer interval,
+                                             @RequestHeader("Authorization") String tokenHeader) {
+        return planReportService.costShareReport(scope, groupBy, org, planType, interval, tokenHeader);
+    }
+
     @GetMapping("/{planId}")
-    public ResponseEntity<?> getPlan(@PathVariable String planId, HttpServletRequest request, @RequestHeader("Authorization") String tokenHeader) {
-        return planService.getById(planId, request, tokenHeader);
+    public ResponseEntity<?> getPlan(@PathVariable String planId,
+                                     @RequestParam(required = false) String fields,
+                                     @RequestParam(required = false) Integer depth,
+                                     HttpServletRequest request,
+                                     @RequestHeader("Authorization") String tokenHeader) {
+        return planService.getById(planId, fields, depth, request, tokenHeader);
     }
 
     @DeleteMapping("/{planId}")
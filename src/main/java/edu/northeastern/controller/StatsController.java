@@ -0,0 +1,76 @@
+package edu.northeastern.controller;
+
+import com.auth0.jwt.exceptions.TokenExpiredException;
+import edu.northeastern.Service.PlanBulkService;
+import edu.northeastern.Service.PlanExportService;
+import edu.northeastern.Service.PlanMultiGetService;
+import edu.northeastern.Service.PlanReportService;
+import edu.northeastern.Service.RabbitMQService;
+import edu.northeastern.repository.PlanNearCache;
+import edu.northeastern.repository.PlanRepository;
+import edu.northeastern.utils.JwtUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/stats")
+public class StatsController {
+
+    private static final Logger logger = LoggerFactory.getLogger(StatsController.class);
+
+    @Autowired
+    private JwtUtils jwtUtils;
+
+    @Autowired
+    private RabbitMQService rabbitMQService;
+
+    @Autowired
+    private PlanReportService planReportService;
+
+    @Autowired
+    private PlanBulkService planBulkService;
+
+    @Autowired
+    private PlanExportService planExportService;
+
+    @Autowired
+    private PlanMultiGetService planMultiGetService;
+
+    @Autowired
+    private PlanNearCache planNearCache;
+
+    @Autowired
+    private PlanRepository planRepository;
+
+    @GetMapping
+    public ResponseEntity<?> getStats(@RequestHeader("Authorization") String tokenHeader) {
+        try {
+            if(!jwtUtils.verifyJWTToken(tokenHeader)){
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid token");
+            }
+        } catch (TokenExpiredException ex){
+            logger.error("The Token has expired. "+ex.getMessage());
+            return new ResponseEntity<>(ex.getMessage(), HttpStatus.UNAUTHORIZED);
+        }
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("jwt", jwtUtils.getStats());
+        stats.put("indexQueue", rabbitMQService.getStats());
+        stats.put("reportCache", planReportService.getStats());
+        stats.put("bulk", planBulkService.getStats());
+        stats.put("export", planExportService.getStats());
+        stats.put("multiGet", planMultiGetService.getStats());
+        stats.put("nearCache", planNearCache.getStats());
+        stats.put("redis", planRepository.getStats());
+        return ResponseEntity.ok(stats);
+    }
+}
@@ -0,0 +1,7 @@
+package edu.northeastern.excpetions;
+
+public class InvalidPatchException extends RuntimeException{
+    public InvalidPatchException(String message){
+        super(message);
+    }
+}
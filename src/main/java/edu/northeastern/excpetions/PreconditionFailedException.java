@@ -0,0 +1,7 @@
+package edu.northeastern.excpetions;
+
+public class PreconditionFailedException extends RuntimeException{
+    public PreconditionFailedException(String message){
+        super(message);
+    }
+}
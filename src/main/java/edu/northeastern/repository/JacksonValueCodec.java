@@ -0,0 +1,144 @@
+package edu.northeastern.repository;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ Value codec backed by a jackson data format (json, smile or cbor), deflating values above compressThreshold bytes.
+ Encoded values start with a 3 byte header: 0x00 marker, format id, compression id.
+ JSON text can never start with 0x00, so values without the header are read as legacy plain JSON.
+ **/
+public class JacksonValueCodec implements ValueCodec {
+
+    public enum Format {
+        JSON(1, new ObjectMapper()),
+        SMILE(2, new ObjectMapper(new SmileFactory())),
+        CBOR(3, new ObjectMapper(new CBORFactory()));
+
+        private final byte id;
+        private final ObjectMapper mapper;
+
+        Format(int id, ObjectMapper mapper) {
+            this.id = (byte) id;
+            this.mapper = mapper;
+        }
+
+        static Format of(byte id) {
+            for (Format format : values()) {
+                if (format.id == id) return format;
+            }
+            throw new IllegalArgumentException("Unknown value format: " + id);
+        }
+    }
+
+    private static final byte MARKER = 0x00;
+    private static final byte UNCOMPRESSED = 0;
+    private static final byte DEFLATED = 1;
+    private static final int HEADER_LENGTH = 3;
+
+    private final Format format;
+    private final int compressThreshold;
+
+    public JacksonValueCodec(Format format, int compressThreshold) {
+        this.format = format;
+        this.compressThreshold = compressThreshold;
+    }
+
+    /**
+     Codec for the plan.redis.codec property: json, smile or cbor. A threshold of 0 or less disables compression.
+     **/
+    public static JacksonValueCodec forName(String name, int compressThreshold) {
+        return new JacksonValueCodec(Format.valueOf(name.trim().toUpperCase()),
+                compressThreshold <= 0 ? Integer.MAX_VALUE : compressThreshold);
+    }
+
+    @Override
+    public String name() {
+        return format.name().toLowerCase() + (compressThreshold < Integer.MAX_VALUE ? "+deflate" : "");
+    }
+
+    @Override
+    public byte[] encode(JsonNode node) {
+        try {
+            byte[] payload = format.mapper.writeValueAsBytes(node);
+            byte compression = UNCOMPRESSED;
+            if (payload.length > compressThreshold) {
+                payload = deflate(payload);
+                compression = DEFLATED;
+            }
+            byte[] value = new byte[HEADER_LENGTH + payload.length];
+            value[0] = MARKER;
+            value[1] = format.id;
+            value[2] = compression;
+            System.arraycopy(payload, 0, value, HEADER_LENGTH, payload.length);
+            return value;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public JsonNode decode(byte[] bytes) {
+        if (bytes == null) return null;
+        try {
+            if (bytes.length == 0) return Format.JSON.mapper.createObjectNode();
+            if (bytes[0] != MARKER) {
+                return Format.JSON.mapper.readTree(bytes);
+            }
+            ObjectMapper mapper = Format.of(bytes[1]).mapper;
+            if (bytes[2] == DEFLATED) {
+                byte[] payload = inflate(bytes, HEADER_LENGTH);
+                return mapper.readTree(payload);
+            }
+            return mapper.readTree(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static byte[] deflate(byte[] input) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 2 + 16);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] input, int offset) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input, offset, input.length - offset);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.length * 3);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated deflated value");
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException ex) {
+            throw new IOException(ex);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package edu.northeastern.repository;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ Structural diff between two versions of a hydrated plan. Both versions are flattened the way they are stored
+ (one object per id_objectType_objectId key) and compared object by object, so a patch only writes the objects whose
+ content changed, deletes the ones no longer referenced, and describes the same change to the indexer as a delta:
+ {"objectId", "root", "rootChanged", "upsert": [{"name", "parent", "document"}], "delete": [objectId], "detach": [objectId]}
+ where name is the field the object hangs off and parent the objectId of the object holding that field.
+ Objects the plan owns are deleted, the ones keyed in the tagged layout under its hash tag. With the flat layout
+ a child may be shared with other plans: it is detached, released by the plan and deleted from redis only when no
+ other plan refers to it (see PlanWriteBatch.release); the search document routed to this plan is deleted either way.
+ **/
+public class PlanDiff {
+
+    private final String rootId;
+    private final JsonNode root;
+    private final Map<String, JsonNode> changed = new LinkedHashMap<>();
+    private final Map<String, JsonNode> removed = new LinkedHashMap<>();
+    private final Map<String, JsonNode> detached = new LinkedHashMap<>();
+    private final Set<String> referenced = new LinkedHashSet<>();
+    private final Map<String, Placement> placements;
+
+    private PlanDiff(String rootId, JsonNode root, Map<String, Placement> placements) {
+        this.rootId = rootId;
+        this.root = root;
+        this.placements = placements;
+    }
+
+    /**
+     flattener is PlanRepository.traverseInput: it replaces the nested objects of its argument by their ids
+     and queues the flattened objects in the batch. Neither plan is modified.
+     **/
+    public static PlanDiff between(String rootId, JsonNode oldPlan, JsonNode newPlan, BiConsumer<JsonNode, PlanWriteBatch> flattener) {
+        Map<String, JsonNode> before = flatten(rootId, oldPlan, flattener);
+        Map<String, JsonNode> after = flatten(rootId, newPlan, flattener);
+        Map<String, Placement> placements = new HashMap<>();
+        place(newPlan, newPlan.path("objectId").asText(), null, null, placements);
+
+        PlanDiff diff = new PlanDiff(rootId, after.get(rootId), placements);
+        diff.referenced.addAll(after.keySet());
+        after.forEach((key, node) -> {
+            if (!node.equals(before.get(key))) diff.changed.put(key, node);
+        });
+        before.forEach((key, node) -> {
+            if (after.containsKey(key)) return;
+            if (PlanKeys.isTagged(key)) {
+                diff.removed.put(key, node);
+            } else {
+                diff.detached.put(key, node);
+            }
+        });
+        return diff;
+    }
+
+    private static Map<String, JsonNode> flatten(String rootId, JsonNode plan, BiConsumer<JsonNode, PlanWriteBatch> flattener) {
+        JsonNode root = plan.deepCopy();
+        PlanWriteBatch batch = new PlanWriteBatch();
+        flattener.accept(root, batch);
+        Map<String, JsonNode> values = batch.getValues();
+        values.put(rootId, root);
+        return values;
+    }
+
+    private static void place(JsonNode node, String planId, String field, String parentObjectId, Map<String, Placement> placements) {
+        if (node.isObject()) {
+            String objectId = node.path("objectId").asText(null);
+            String objectType = node.path("objectType").asText(null);
+            if (objectId != null && objectType != null) {
+                placements.putIfAbsent(PlanKeys.object(planId, objectType, objectId), new Placement(field, parentObjectId));
+                parentObjectId = objectId;
+            }
+            String parent = parentObjectId;
+            node.fields().forEachRemaining(e -> {
+                if (e.getValue().isContainerNode()) place(e.getValue(), planId, e.getKey(), parent, placements);
+            });
+        } else if (node.isArray()) {
+            for (JsonNode element : node) {
+                place(element, planId, field, parentObjectId, placements);
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return changed.isEmpty() && removed.isEmpty() && detached.isEmpty();
+    }
+
+    public Set<String> getChangedKeys() {
+        return changed.keySet();
+    }
+
+    /**
+     Keys no longer referenced that the plan owns, deleted by addTo
+     **/
+    public Set<String> getRemovedKeys() {
+        return removed.keySet();
+    }
+
+    /**
+     Keys no longer referenced that may be shared (flat layout), released by addTo
+     **/
+    public Set<String> getDetachedKeys() {
+        return detached.keySet();
+    }
+
+    /**
+     Queue the writes of the diff: changed objects (the root included), deletes of the removed ones and releases of
+     the detached ones. Every object the plan still refers to is recorded with PlanWriteBatch.refer, unchanged ones included.
+     **/
+    public void addTo(PlanWriteBatch batch) {
+        changed.forEach((key, node) -> batch.put(key, node, rootId));
+        referenced.forEach(key -> batch.refer(key, rootId));
+        detached.keySet().forEach(key -> batch.release(key, rootId));
+        removed.keySet().forEach(batch::delete);
+    }
+
+    public ObjectNode toDelta() {
+        ObjectNode delta = JsonNodeFactory.instance.objectNode();
+        delta.put("objectId", root.path("objectId").asText());
+        delta.set("root", root);
+        delta.put("rootChanged", changed.containsKey(rootId));
+        ArrayNode upserts = delta.putArray("upsert");
+        changed.forEach((key, node) -> {
+            if (key.equals(rootId)) return;
+            Placement placement = placements.get(key);
+            ObjectNode upsert = upserts.addObject();
+            upsert.put("name", placement == null ? null : placement.field);
+            upsert.put("parent", placement == null ? null : placement.parentObjectId);
+            upsert.set("document", node);
+        });
+        ArrayNode deletes = delta.putArray("delete");
+        removed.values().forEach(node -> deletes.add(node.path("objectId").asText()));
+        ArrayNode detaches = delta.putArray("detach");
+        detached.values().forEach(node -> detaches.add(node.path("objectId").asText()));
+        return delta;
+    }
+
+    private static class Placement {
+        private final String field;
+        private final String parentObjectId;
+
+        Placement(String field, String parentObjectId) {
+            this.field = field;
+            this.parentObjectId = parentObjectId;
+        }
+    }
+}
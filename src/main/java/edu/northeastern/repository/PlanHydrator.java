@@ -0,0 +1,179 @@
+package edu.northeastern.repository;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ Replaces the id_objectType_objectId references of a flattened plan by the stored objects.
+ The reference graph is walked breadth-first: every level is resolved with one multi-get,
+ each id is fetched at most once, and a reference to one of its own ancestors (cycle) or
+ deeper than maxDepth is left as the id.
+ **/
+public class PlanHydrator {
+
+    public static final int DEFAULT_MAX_DEPTH = 16;
+    private static final String ID_PREFIX = "id_";
+
+    private static final Logger logger = LoggerFactory.getLogger(PlanHydrator.class);
+
+    private final Function<List<String>, List<JsonNode>> multiGet;
+    private final int maxDepth;
+
+    /**
+     multiGet returns the decoded objects of the given ids in the same order, null for missing ids
+     **/
+    public PlanHydrator(Function<List<String>, List<JsonNode>> multiGet, int maxDepth) {
+        this.multiGet = multiGet;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     Hydrate root in place. Every id met on the way is added to childIdSet when it is not null.
+     **/
+    public void hydrate(JsonNode root, Set<String> childIdSet) {
+        hydrate(root, childIdSet, PlanProjection.ALL);
+    }
+
+    /**
+     Hydrate only what projection selects: unselected fields are removed before their references are resolved,
+     and references deeper than its depth are left as the id, so neither is ever fetched.
+     **/
+    public void hydrate(JsonNode root, Set<String> childIdSet, PlanProjection projection) {
+        if (root == null) return;
+        Map<String, JsonNode> fetched = new HashMap<>();
+        Set<String> placed = new HashSet<>();
+        List<Slot> level = new ArrayList<>();
+        collect(root, null, projection, level);
+
+        for (int depth = 1; !level.isEmpty(); depth++) {
+            if (depth > projection.getDepth()) break;
+            if (depth > maxDepth) {
+                logger.warn("Stopped hydrating at depth " + maxDepth + ", " + level.size() + " reference(s) left unresolved.");
+                break;
+            }
+            fetch(level, fetched);
+
+            List<Slot> next = new ArrayList<>();
+            Map<ArrayNode, List<Integer>> missing = new IdentityHashMap<>();
+            for (Slot slot : level) {
+                if (childIdSet != null) childIdSet.add(slot.id);
+                if (slot.isCycle()) {
+                    logger.warn("Cyclic reference " + slot.id + " left unresolved.");
+                    continue;
+                }
+                JsonNode node = fetched.get(slot.id);
+                if (node != null && (!placed.add(slot.id) || !slot.projection.isWhole())) {
+                    // shared object, every occurrence gets its own copy; a pruned one never is the fetched one
+                    node = node.deepCopy();
+                }
+                if (slot.array != null) {
+                    if (node == null) {
+                        missing.computeIfAbsent(slot.array, k -> new ArrayList<>()).add(slot.index);
+                        continue;
+                    }
+                    slot.array.set(slot.index, node);
+                    collect(node, slot, slot.projection, next);
+                } else {
+                    if (node == null) node = JsonNodeFactory.instance.objectNode();
+                    slot.object.set(slot.field, node);
+                    collect(node, slot, slot.projection, next);
+                }
+            }
+            // drop array elements whose object no longer exists, highest index first
+            missing.forEach((array, indexes) -> {
+                indexes.sort(Collections.reverseOrder());
+                indexes.forEach(array::remove);
+            });
+            level = next;
+        }
+    }
+
+    private void fetch(List<Slot> level, Map<String, JsonNode> fetched) {
+        List<String> ids = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (Slot slot : level) {
+            if (!fetched.containsKey(slot.id) && seen.add(slot.id)) ids.add(slot.id);
+        }
+        if (ids.isEmpty()) return;
+        List<JsonNode> values = multiGet.apply(ids);
+        for (int i = 0; i < ids.size(); i++) {
+            fetched.put(ids.get(i), values.get(i));
+        }
+    }
+
+    /**
+     Find the references held by node, descending into inline objects and arrays but not into other references.
+     Fields of node that projection does not select are removed.
+     **/
+    private static void collect(JsonNode node, Slot parent, PlanProjection projection, List<Slot> out) {
+        if (node == null) return;
+        if (node.isObject()) {
+            ObjectNode object = (ObjectNode) node;
+            Iterator<Map.Entry<String, JsonNode>> fields = object.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> e = fields.next();
+                if (!projection.selects(e.getKey())) {
+                    fields.remove();
+                    continue;
+                }
+                JsonNode value = e.getValue();
+                if (isReference(value)) {
+                    out.add(new Slot(value.asText(), parent, projection.child(e.getKey()), object, e.getKey(), null, -1));
+                } else if (value.isContainerNode()) {
+                    collect(value, parent, projection.child(e.getKey()), out);
+                }
+            }
+        } else if (node.isArray()) {
+            ArrayNode array = (ArrayNode) node;
+            for (int i = 0; i < array.size(); i++) {
+                JsonNode value = array.get(i);
+                if (isReference(value)) {
+                    out.add(new Slot(value.asText(), parent, projection, null, null, array, i));
+                } else if (value.isContainerNode()) {
+                    collect(value, parent, projection, out);
+                }
+            }
+        }
+    }
+
+    private static boolean isReference(JsonNode value) {
+        return value.isTextual() && value.asText().startsWith(ID_PREFIX);
+    }
+
+    /**
+     A position in the tree (object field or array element) holding a reference, plus the reference that led here
+     **/
+    private static class Slot {
+        private final String id;
+        private final Slot parent;
+        private final PlanProjection projection;
+        private final ObjectNode object;
+        private final String field;
+        private final ArrayNode array;
+        private final int index;
+
+        Slot(String id, Slot parent, PlanProjection projection, ObjectNode object, String field, ArrayNode array, int index) {
+            this.id = id;
+            this.parent = parent;
+            this.projection = projection;
+            this.object = object;
+            this.field = field;
+            this.array = array;
+            this.index = index;
+        }
+
+        boolean isCycle() {
+            for (Slot ancestor = parent; ancestor != null; ancestor = ancestor.parent) {
+                if (ancestor.id.equals(id)) return true;
+            }
+            return false;
+        }
+    }
+}
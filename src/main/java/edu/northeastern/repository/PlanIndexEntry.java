@@ -0,0 +1,100 @@
+package edu.northeastern.repository;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ Secondary index entries of a root plan. Every index is a sorted set whose members are yyyyMMdd:objectId with score 0,
+ so ZRANGEBYLEX walks it in creationDate order and a member is an exact keyset cursor:
+ idx_plan_created holds all plans, idx_plan_org:{_org} and idx_plan_type:{planType} the plans of one org / type.
+ The entry written last is kept in the plan's view hash, so the next write knows which members to remove.
+ **/
+public class PlanIndexEntry {
+
+    public static final String CREATED = "idx_plan_created";
+    public static final String ORG_PREFIX = "idx_plan_org:";
+    public static final String TYPE_PREFIX = "idx_plan_type:";
+
+    static final String MEMBER_FIELD = "idx_member";
+    static final String ORG_FIELD = "idx_org";
+    static final String TYPE_FIELD = "idx_type";
+
+    private static final DateTimeFormatter creationDateFormat = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+    private static final DateTimeFormatter memberDateFormat = DateTimeFormatter.BASIC_ISO_DATE;
+    private static final String undated = "00000000";
+
+    private final String id;
+    private final String member;
+    private final String org;
+    private final String planType;
+
+    PlanIndexEntry(String id, String member, String org, String planType) {
+        this.id = id;
+        this.member = member;
+        this.org = org;
+        this.planType = planType;
+    }
+
+    /**
+     Entry of the root plan stored under id (id_plan_objectId)
+     **/
+    public static PlanIndexEntry of(String id, JsonNode plan) {
+        return new PlanIndexEntry(id,
+                member(plan.path("creationDate").asText(null), plan.path("objectId").asText()),
+                plan.path("_org").asText(null),
+                plan.path("planType").asText(null));
+    }
+
+    static String member(String creationDate, String objectId) {
+        String date = undated;
+        if (creationDate != null) {
+            try {
+                date = LocalDate.parse(creationDate, creationDateFormat).format(memberDateFormat);
+            } catch (DateTimeParseException ex) {
+                // left undated, sorts first
+            }
+        }
+        return date + ":" + objectId;
+    }
+
+    public static String objectId(String member) {
+        return member.substring(member.indexOf(':') + 1);
+    }
+
+    public static String orgKey(String org) {
+        return ORG_PREFIX + org;
+    }
+
+    public static String typeKey(String planType) {
+        return TYPE_PREFIX + planType;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getMember() {
+        return member;
+    }
+
+    public String getOrg() {
+        return org;
+    }
+
+    public String getPlanType() {
+        return planType;
+    }
+
+    Map<String, String> toHash() {
+        Map<String, String> hash = new HashMap<>();
+        hash.put(MEMBER_FIELD, member);
+        if (org != null) hash.put(ORG_FIELD, org);
+        if (planType != null) hash.put(TYPE_FIELD, planType);
+        return hash;
+    }
+}
@@ -0,0 +1,25 @@
+package edu.northeastern.repository;
+
+import java.util.List;
+
+/**
+ One page of plan keys and the cursor to pass back for the next page, null when there is none
+ **/
+public class PlanKeyPage {
+
+    private final List<String> keys;
+    private final String next;
+
+    public PlanKeyPage(List<String> keys, String next) {
+        this.keys = keys;
+        this.next = next;
+    }
+
+    public List<String> getKeys() {
+        return keys;
+    }
+
+    public String getNext() {
+        return next;
+    }
+}
@@ -0,0 +1,70 @@
+package edu.northeastern.repository;
+
+/**
+ Redis keys of the flattened objects. Two layouts:
+ flat    id_objectType_objectId, children shared between plans are stored once (standalone redis only), each with
+         the set of plans referring to it (referrers)
+ tagged  id_objectType_{planId}objectId, every object carries the id of the plan owning it as hash tag, so all keys
+         of a plan (its view included) live in one cluster slot and one plan can be written in one MULTI/EXEC
+ Keys are stored as references in the parent objects, so a plan is always read back through the keys it was written
+ with; the layout only decides the keys of new writes. The layout is set once by the repository at startup.
+ **/
+public class PlanKeys {
+
+    public static final String FLAT = "flat";
+    public static final String TAGGED = "tagged";
+    public static final String PREFIX = "id_";
+
+    private static volatile boolean tagged;
+
+    public static void setLayout(String layout) {
+        if (!FLAT.equals(layout) && !TAGGED.equals(layout)) {
+            throw new IllegalArgumentException("Unknown key layout " + layout + ", expected " + FLAT + " or " + TAGGED);
+        }
+        tagged = TAGGED.equals(layout);
+    }
+
+    public static boolean isTagged() {
+        return tagged;
+    }
+
+    /**
+     Key of the root plan
+     **/
+    public static String plan(String planId) {
+        return object(planId, "plan", planId);
+    }
+
+    /**
+     Key of an object owned by the plan planId
+     **/
+    public static String object(String planId, String objectType, String objectId) {
+        return tagged
+                ? PREFIX + objectType + "_{" + planId + "}" + objectId
+                : PREFIX + objectType + "_" + objectId;
+    }
+
+    /**
+     Key of an object of the plan stored under planKey, in the layout planKey was written with
+     **/
+    public static String sibling(String planKey, String objectType, String objectId) {
+        if (!isTagged(planKey)) return PREFIX + objectType + "_" + objectId;
+        String planId = planKey.substring(planKey.indexOf('{') + 1, planKey.indexOf('}', planKey.indexOf('{')));
+        return PREFIX + objectType + "_{" + planId + "}" + objectId;
+    }
+
+    /**
+     Key of the set of plan keys referring to the flat object stored under key, see PlanWriteBatch.refer
+     **/
+    public static String referrers(String key) {
+        return "plan_refs_" + key;
+    }
+
+    /**
+     Whether the key is in the tagged layout
+     **/
+    public static boolean isTagged(String key) {
+        int open = key.indexOf('{');
+        return open >= 0 && key.indexOf('}', open) > open + 1;
+    }
+}
@@ -0,0 +1,221 @@
+package edu.northeastern.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.UnifiedJedis;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ In-process cache in front of redis for the flattened objects and the plan views, LRU bounded by entry count and by
+ weight (the stored size of the values in bytes).
+ Every write of PlanRepositoryImpl publishes the keys it touched on the plan_invalidation channel and every node,
+ the writer included, drops them on receipt. A value loaded from redis is only cached when no invalidation arrived
+ while it was loading, so a value read before a concurrent write is never cached after that write's invalidation.
+ While the subscription is down invalidations can be missed, so the cache is cleared whenever it (re)subscribes.
+ When disabled, nothing is cached but writes are still published, for the nodes that have it enabled.
+ **/
+@Component
+public class PlanNearCache {
+
+    public static final String CHANNEL = "plan_invalidation";
+    private static final String KEY_SEPARATOR = "\n";
+    private static final long resubscribeDelayMs = 1000;
+
+    private static final Logger logger = LoggerFactory.getLogger(PlanNearCache.class);
+
+    @Value("${plan.near-cache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${plan.near-cache.max-entries:10000}")
+    private int maxEntries;
+
+    @Value("${plan.near-cache.max-weight-bytes:67108864}")
+    private long maxWeight;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    //incremented by every invalidation, a load only fills the cache when it did not move
+    private long epoch;
+    private volatile boolean subscribed;
+    private volatile boolean running;
+
+    private UnifiedJedis jedis;
+    private Thread subscriber;
+    private final JedisPubSub listener = new JedisPubSub() {
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+            subscribed = true;
+            clear();
+            logger.info("Near cache subscribed to " + channel);
+        }
+
+        @Override
+        public void onMessage(String channel, String message) {
+            evict(Arrays.asList(message.split(KEY_SEPARATOR)));
+        }
+    };
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder staleLoads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     Called by the repository with its pool, starts listening for invalidations when enabled
+     **/
+    public void start(UnifiedJedis jedis) {
+        this.jedis = jedis;
+        if (!enabled) return;
+        running = true;
+        subscriber = new Thread(this::subscribe, "plan-near-cache");
+        subscriber.setDaemon(true);
+        subscriber.start();
+        logger.info("Near cache enabled: " + maxEntries + " entries, " + maxWeight + " bytes.");
+    }
+
+    private void subscribe() {
+        while (running) {
+            try {
+                jedis.subscribe(listener, CHANNEL);
+            } catch (Exception ex) {
+                logger.warn("Near cache lost its subscription, bypassing it until resubscribed: " + ex.getMessage());
+            }
+            subscribed = false;
+            clear();
+            if (!running) return;
+            try {
+                Thread.sleep(resubscribeDelayMs);
+            } catch (InterruptedException ex) {
+                return;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (listener.isSubscribed()) listener.unsubscribe();
+        if (subscriber != null) subscriber.interrupt();
+    }
+
+    private boolean isActive() {
+        return enabled && subscribed;
+    }
+
+    /**
+     The cached value, null on a miss. Callers must not modify it.
+     **/
+    public Object get(String key) {
+        if (!isActive()) return null;
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return entry.value;
+        }
+    }
+
+    /**
+     Taken before reading from redis and given back to put
+     **/
+    public long loadStamp() {
+        synchronized (entries) {
+            return epoch;
+        }
+    }
+
+    public void put(String key, Object value, long weightBytes, long stamp) {
+        if (!isActive() || value == null || weightBytes > maxWeight) return;
+        synchronized (entries) {
+            if (stamp != epoch) {
+                staleLoads.increment();
+                return;
+            }
+            loads.increment();
+            Entry previous = entries.put(key, new Entry(value, weightBytes));
+            if (previous != null) weight -= previous.weight;
+            weight += weightBytes;
+            Iterator<Entry> eldest = entries.values().iterator();
+            while ((entries.size() > maxEntries || weight > maxWeight) && eldest.hasNext()) {
+                weight -= eldest.next().weight;
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     Drop the keys here and publish them to the other nodes, after they were written to redis
+     **/
+    public void invalidate(Collection<String> keys) {
+        if (keys.isEmpty()) return;
+        evict(keys);
+        try {
+            jedis.publish(CHANNEL, String.join(KEY_SEPARATOR, keys));
+        } catch (Exception ex) {
+            logger.error("Could not publish the invalidation of " + keys.size() + " key(s): " + ex.getMessage());
+        }
+    }
+
+    private void evict(Collection<String> keys) {
+        synchronized (entries) {
+            epoch++;
+            for (String key : keys) {
+                Entry entry = entries.remove(key);
+                if (entry != null) {
+                    weight -= entry.weight;
+                    invalidations.increment();
+                }
+            }
+        }
+    }
+
+    private void clear() {
+        synchronized (entries) {
+            epoch++;
+            entries.clear();
+            weight = 0;
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long hitCount = hits.sum();
+        long lookups = hitCount + misses.sum();
+        stats.put("enabled", enabled);
+        stats.put("subscribed", subscribed);
+        stats.put("hits", hitCount);
+        stats.put("misses", misses.sum());
+        stats.put("hitRatio", lookups == 0 ? 0.0 : (double) hitCount / lookups);
+        stats.put("loads", loads.sum());
+        stats.put("staleLoads", staleLoads.sum());
+        stats.put("evictions", evictions.sum());
+        stats.put("invalidations", invalidations.sum());
+        synchronized (entries) {
+            stats.put("size", entries.size());
+            stats.put("weightBytes", weight);
+        }
+        return stats;
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final long weight;
+
+        Entry(Object value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package edu.northeastern.repository;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ What part of a plan a GET asks for: fields=planCostShares,linkedPlanServices.linkedService.name selects paths
+ (a dotted path goes through objects and the arrays holding them), depth=n limits how many levels of references
+ are resolved, deeper ones are left as their id. objectId and objectType of every returned object are always kept.
+ PlanHydrator prunes unselected fields before it resolves references, so their objects are never fetched
+ (PlanRepository.getProjectedNode); apply gives the same result from a materialized view, whose body and ETag are read together.
+ **/
+public class PlanProjection {
+
+    public static final PlanProjection ALL = new PlanProjection(null, Integer.MAX_VALUE);
+
+    private final Map<String, PlanProjection> fields;
+    private final int depth;
+
+    private PlanProjection(Map<String, PlanProjection> fields, int depth) {
+        this.fields = fields;
+        this.depth = depth;
+    }
+
+    /**
+     fields and depth as given on the query string, both optional
+     **/
+    public static PlanProjection parse(String fields, Integer depth) {
+        if (depth != null && depth < 0) {
+            throw new IllegalArgumentException("depth must be 0 or more.");
+        }
+        int maxDepth = depth == null ? Integer.MAX_VALUE : depth;
+        if (fields == null || fields.trim().isEmpty()) {
+            return new PlanProjection(null, maxDepth);
+        }
+        PlanProjection root = new PlanProjection(new LinkedHashMap<>(), maxDepth);
+        for (String path : fields.split(",")) {
+            path = path.trim();
+            if (path.isEmpty()) continue;
+            String[] steps = path.split("\\.", -1);
+            PlanProjection node = root;
+            for (int i = 0; i < steps.length && node.fields != null; i++) {
+                if (steps[i].isEmpty()) {
+                    throw new IllegalArgumentException("Invalid field path: " + path);
+                }
+                if (i == steps.length - 1) {
+                    // a path ending on a field selects everything under it
+                    node.fields.put(steps[i], new PlanProjection(null, maxDepth));
+                } else {
+                    node = node.fields.computeIfAbsent(steps[i], k -> new PlanProjection(new LinkedHashMap<>(), maxDepth));
+                }
+            }
+        }
+        return root;
+    }
+
+    public boolean isAll() {
+        return fields == null && depth == Integer.MAX_VALUE;
+    }
+
+    /**
+     Whether every field of the object is returned
+     **/
+    public boolean isWhole() {
+        return fields == null;
+    }
+
+    /**
+     Whether the field is returned, objectId and objectType always are
+     **/
+    public boolean selects(String field) {
+        return fields == null || fields.containsKey(field) || "objectId".equals(field) || "objectType".equals(field);
+    }
+
+    /**
+     The projection applying to the value of a selected field
+     **/
+    public PlanProjection child(String field) {
+        if (fields == null) return this;
+        PlanProjection child = fields.get(field);
+        return child == null ? this : child;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     A copy of the hydrated plan stored under planKey (the body of its view) with only what this projection selects,
+     as PlanHydrator would have hydrated it: every nested object was a reference, deeper ones become their key again
+     **/
+    public JsonNode apply(JsonNode plan, String planKey) {
+        JsonNode copy = plan.deepCopy();
+        prune(copy, this, 0, planKey);
+        return copy;
+    }
+
+    private static void prune(JsonNode node, PlanProjection projection, int level, String planKey) {
+        if (node.isObject()) {
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> e = fields.next();
+                if (!projection.selects(e.getKey())) {
+                    fields.remove();
+                    continue;
+                }
+                PlanProjection child = projection.child(e.getKey());
+                if (isObject(e.getValue())) {
+                    e.setValue(resolve(e.getValue(), child, level + 1, planKey));
+                } else if (e.getValue().isContainerNode()) {
+                    prune(e.getValue(), child, level, planKey);
+                }
+            }
+        } else if (node.isArray()) {
+            ArrayNode array = (ArrayNode) node;
+            for (int i = 0; i < array.size(); i++) {
+                if (isObject(array.get(i))) {
+                    array.set(i, resolve(array.get(i), projection, level + 1, planKey));
+                } else if (array.get(i).isContainerNode()) {
+                    prune(array.get(i), projection, level, planKey);
+                }
+            }
+        }
+    }
+
+    private static JsonNode resolve(JsonNode object, PlanProjection projection, int level, String planKey) {
+        if (level > projection.depth) {
+            return TextNode.valueOf(PlanKeys.sibling(planKey, object.path("objectType").asText(), object.path("objectId").asText()));
+        }
+        prune(object, projection, level, planKey);
+        return object;
+    }
+
+    private static boolean isObject(JsonNode value) {
+        return value instanceof ObjectNode && value.has("objectId") && value.has("objectType");
+    }
+
+    /**
+     Short stable id of the projection, the same for the same fields in any order: partial representations are
+     told apart by it in their weak ETags
+     **/
+    public String fingerprint() {
+        CRC32 crc = new CRC32();
+        crc.update(canonical().getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+
+    private String canonical() {
+        StringBuilder builder = new StringBuilder();
+        if (fields != null) {
+            builder.append('(');
+            new TreeMap<>(fields).forEach((name, child) -> builder.append(name).append(child.canonical()).append(','));
+            builder.append(')');
+        }
+        return depth == Integer.MAX_VALUE ? builder.toString() : builder.append(':').append(depth).toString();
+    }
+}
@@ -1,7 +1,9 @@
 package edu.northeastern.repository;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public interface PlanRepository<T> {
@@ -10,12 +12,62 @@ public interface PlanRepository<T> {
 
     String getValue(String key);
 
+    JsonNode getNode(String key);
+
+    List<JsonNode> getNodes(List<String> keys);
+
+    List<JsonNode> getHydratedNodes(List<String> keys);
+
+    List<JsonNode> getProjectedNodes(List<String> keys, PlanProjection projection);
+
+    JsonNode getProjectedNode(String key, PlanProjection projection, long version);
+
     Long deleteValue(String key);
 
     void traverseInput(JsonNode jsonNode);
 
+    void traverseInput(JsonNode jsonNode, PlanWriteBatch batch);
+
+    List<Object> commit(PlanWriteBatch batch);
+
+    PlanView getView(String id);
+
+    PlanView getView(String id, long minVersion);
+
+    PlanView getViewForUpdate(String id);
+
+    long getViewVersion(String id);
+
+    List<PlanView> getViews(List<String> ids);
+
+    long nextVersion();
+
+    long nextVersions(int count);
+
+    long indexGeneration();
+
+    long bumpIndexGeneration();
+
+    String getMirrorIndex();
+
+    void setMirrorIndex(String index);
+
+    Set<String> getMirrorTombstones();
+
+    void updateMirrorTombstones(Collection<String> added, Collection<String> removed);
+
     void populateNestedData(JsonNode parent, Set<String> childIdSet);
 
     List<String> deleteValueTraverse(String id);
 
+    PlanKeyPage scanPlans(String cursor, int count);
+
+    PlanKeyPage scanKeys(String pattern, String cursor, int count);
+
+    boolean isCluster();
+
+    Map<String, Object> getStats();
+
+    PlanKeyPage listPlans(String org, String planType, String after, int size, boolean descending);
+
 }
@@ -1,54 +1,382 @@
 package edu.northeastern.repository;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.TextNode;
+import edu.northeastern.excpetions.PreconditionFailedException;
 import edu.northeastern.utils.JsonUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
-import redis.clients.jedis.JedisPooled;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import redis.clients.jedis.*;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.resps.ScanResult;
+import redis.clients.jedis.util.JedisClusterCRC16;
+import redis.clients.jedis.util.SafeEncoder;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
 
 @Repository
 public class PlanRepositoryImpl<T> implements PlanRepository<T> {
 
-    private static final String hostname = "localhost";
-    private static final Integer redis_port = 6379;
-    private final JedisPooled jedis = new JedisPooled(hostname, redis_port);
+    private static final String versionSequence = "plan_version_seq";
+    private static final String indexGeneration = "plan_index_generation";
+    private static final String mirrorIndex = "plan_index_mirror";
+    private static final String mirrorTombstones = "plan_index_mirror_tombstones";
+    private static final String planKeyPattern = "id_plan_*";
+    private static final int maxCommitAttempts = 5;
+    private UnifiedJedis jedis;
+    private boolean cluster;
+    private final PlanHydrator hydrator = new PlanHydrator(this::multiGet, PlanHydrator.DEFAULT_MAX_DEPTH);
+    private final PlanHydrator primaryHydrator = new PlanHydrator(this::primaryMultiGet, PlanHydrator.DEFAULT_MAX_DEPTH);
+
+    private static final Logger logger = LoggerFactory.getLogger(PlanRepositoryImpl.class);
+
+    @Value("${plan.redis.codec:smile}")
+    private String codecName;
+
+    @Value("${plan.redis.compress-threshold:4096}")
+    private int compressThreshold;
+
+    @Value("${spring.redis.host:localhost}")
+    private String host;
+
+    @Value("${spring.redis.port:6379}")
+    private int port;
+
+    @Value("${spring.redis.cluster.nodes:}")
+    private String clusterNodes;
+
+    @Value("${spring.redis.password:}")
+    private String password;
+
+    @Value("${plan.redis.timeout-ms:2000}")
+    private int timeoutMs;
+
+    @Value("${plan.redis.pool.max-total:16}")
+    private int poolSize;
+
+    @Value("${plan.redis.key-layout:flat}")
+    private String keyLayout;
+
+    @Value("${plan.redis.replicas:}")
+    private String replicaNodes;
+
+    @Value("${plan.redis.replica.read-your-writes:etag}")
+    private String readYourWrites;
+
+    @Value("${plan.redis.replica.wait-timeout-ms:100}")
+    private long waitTimeoutMs;
+
+    @Value("${plan.redis.replica.health-interval-ms:1000}")
+    private long healthIntervalMs;
+
+    private ReplicaRouter replicas = new ReplicaRouter(Collections.emptyList(), null, null, 0);
+    private boolean waitForReplicas;
+    private boolean pinFreshReads;
+    private final LongAdder pinnedReads = new LongAdder();
+    private final LongAdder laggingWrites = new LongAdder();
+    private final LongAdder movedProjections = new LongAdder();
+
+    private ValueCodec codec = JacksonValueCodec.forName("json", 0);
+
+    @Autowired
+    private PlanNearCache nearCache;
+
+    /**
+     Standalone redis at spring.redis.host:port, or a Redis Cluster when spring.redis.cluster.nodes lists its seed nodes.
+     The cluster needs the tagged key layout, so every plan stays in one slot.
+     **/
+    @PostConstruct
+    public void init() {
+        codec = JacksonValueCodec.forName(codecName, compressThreshold);
+        logger.info("Storing plan objects with value codec: " + codec.name());
+        PlanKeys.setLayout(keyLayout);
+        JedisClientConfig clientConfig = DefaultJedisClientConfig.builder()
+                .timeoutMillis(timeoutMs)
+                .password(password.isEmpty() ? null : password)
+                .build();
+        GenericObjectPoolConfig<Connection> poolConfig = new GenericObjectPoolConfig<>();
+        poolConfig.setMaxTotal(poolSize);
+        cluster = !clusterNodes.trim().isEmpty();
+        if (cluster) {
+            if (!PlanKeys.isTagged()) {
+                throw new IllegalStateException("Redis Cluster needs plan.redis.key-layout=" + PlanKeys.TAGGED);
+            }
+            Set<HostAndPort> nodes = new HashSet<>();
+            for (String node : clusterNodes.split(",")) {
+                nodes.add(HostAndPort.from(node.trim()));
+            }
+            jedis = new JedisCluster(nodes, clientConfig, JedisCluster.DEFAULT_MAX_ATTEMPTS, poolConfig);
+            logger.info("Using Redis Cluster " + nodes + " with key layout " + keyLayout);
+        } else {
+            jedis = new JedisPooled(poolConfig, new HostAndPort(host, port), clientConfig);
+            logger.info("Using redis " + host + ":" + port + " with key layout " + keyLayout);
+        }
+        initReplicas(clientConfig, poolConfig);
+        nearCache.start(jedis);
+    }
+
+    /**
+     plan.redis.replicas lists read replicas of the standalone primary (host:port,host:port). Read-your-writes:
+     etag  a GET carrying an ETag newer than the replica's copy of the view is served by the primary
+     wait  every write waits (WAIT, up to wait-timeout-ms) until the healthy replicas have it
+     none  reads may be behind the last write
+     **/
+    private void initReplicas(JedisClientConfig clientConfig, GenericObjectPoolConfig<Connection> poolConfig) {
+        if (replicaNodes.trim().isEmpty()) return;
+        if (cluster) {
+            logger.warn("plan.redis.replicas is ignored on a Redis Cluster.");
+            return;
+        }
+        if (!Arrays.asList("etag", "wait", "none").contains(readYourWrites)) {
+            throw new IllegalStateException("plan.redis.replica.read-your-writes must be etag, wait or none, not " + readYourWrites);
+        }
+        List<HostAndPort> nodes = new ArrayList<>();
+        for (String node : replicaNodes.split(",")) {
+            nodes.add(HostAndPort.from(node.trim()));
+        }
+        replicas = new ReplicaRouter(nodes, clientConfig, poolConfig, healthIntervalMs);
+        waitForReplicas = readYourWrites.equals("wait");
+        pinFreshReads = readYourWrites.equals("etag");
+        logger.info("Reading from replicas " + nodes + ", read-your-writes: " + readYourWrites);
+    }
+
+    @PreDestroy
+    public void close() {
+        replicas.close();
+        if (jedis != null) jedis.close();
+    }
+
+    /**
+     Run a read on the replica when there is one, on the primary when there is none or the replica fails
+     **/
+    private <R> R read(ReplicaRouter.Replica replica, Function<UnifiedJedis, R> op) {
+        if (replica != null) {
+            try {
+                return op.apply(replica.getClient());
+            } catch (JedisConnectionException ex) {
+                replicas.markDown(replica, ex.getMessage());
+            }
+        }
+        return op.apply(jedis);
+    }
+
+    /**
+     A value read from a replica may predate an invalidation the near cache already received,
+     so it is only cached when writes wait for the replicas
+     **/
+    private boolean cacheable(ReplicaRouter.Replica replica) {
+        return replica == null || waitForReplicas;
+    }
+
+    /**
+     Slot of the key in the cluster; on a standalone redis every key is in slot 0
+     **/
+    private int slotOf(String key) {
+        return cluster ? JedisClusterCRC16.getSlot(key) : 0;
+    }
+
+    /**
+     A connection to the node serving the slot, for the transactions and pipelines that cannot go through the cluster client
+     **/
+    private Connection connectionFor(int slot) {
+        return cluster ? ((JedisCluster) jedis).getConnectionFromSlot(slot) : ((JedisPooled) jedis).getPool().getResource();
+    }
+
+    /**
+     Positions of the keys grouped by slot
+     **/
+    private Map<Integer, List<Integer>> groupBySlot(List<String> keys) {
+        Map<Integer, List<Integer>> slots = new LinkedHashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            slots.computeIfAbsent(slotOf(keys.get(i)), k -> new ArrayList<>()).add(i);
+        }
+        return slots;
+    }
 
     @Override
     public void putValue(String key, String value) {
-        jedis.set(key, value);
+        jedis.set(SafeEncoder.encode(key), codec.encode(JsonUtils.stringToNode(value)));
+        nearCache.invalidate(Collections.singletonList(key));
     }
 
     @Override
     public String getValue(String key) {
-        return jedis.get(key);
+        JsonNode node = getNode(key);
+        return node == null ? null : node.toString();
     }
 
+    /**
+     Objects come from the near cache when it has them; callers get their own copy, since hydration modifies it
+     **/
+    @Override
+    public JsonNode getNode(String key) {
+        JsonNode cached = (JsonNode) nearCache.get(key);
+        if (cached != null) return cached.deepCopy();
+        long stamp = nearCache.loadStamp();
+        ReplicaRouter.Replica replica = replicas.pick();
+        byte[] raw = read(replica, client -> client.get(SafeEncoder.encode(key)));
+        JsonNode node = codec.decode(raw);
+        if (node == null) return null;
+        if (cacheable(replica)) nearCache.put(key, node.deepCopy(), raw.length, stamp);
+        return node;
+    }
+
+    @Override
+    public List<JsonNode> getNodes(List<String> keys) {
+        return keys.isEmpty() ? new ArrayList<>() : multiGet(keys);
+    }
+
+    /**
+     Fetch several roots with one MGET and hydrate them together, one MGET per level for all of them.
+     Missing roots are left out.
+     **/
+    @Override
+    public List<JsonNode> getHydratedNodes(List<String> keys) {
+        List<JsonNode> nodes = getProjectedNodes(keys, PlanProjection.ALL);
+        nodes.removeIf(Objects::isNull);
+        return nodes;
+    }
+
+    /**
+     Like getHydratedNodes, but only what projection selects, and the result is aligned with keys: null for a missing root.
+     A child shared by several roots is fetched once.
+     **/
+    @Override
+    public List<JsonNode> getProjectedNodes(List<String> keys, PlanProjection projection) {
+        List<JsonNode> nodes = getNodes(keys);
+        ArrayNode roots = JsonNodeFactory.instance.arrayNode();
+        nodes.forEach(root -> {
+            if (root != null) roots.add(root);
+        });
+        hydrator.hydrate(roots, null, projection);
+        return nodes;
+    }
+
+    /**
+     Only what projection selects of the plan stored under key, hydrated from the primary so unselected objects are never
+     fetched. Null when the view is no longer at version afterwards: a commit rewrites the objects of a plan together with
+     its view in one MULTI, so an unchanged version means every object read belongs to it.
+     **/
+    @Override
+    public JsonNode getProjectedNode(String key, PlanProjection projection, long version) {
+        JsonNode root = codec.decode(jedis.get(SafeEncoder.encode(key)));
+        if (root != null) primaryHydrator.hydrate(root, null, projection);
+        if (root == null || getViewVersion(key) != version) {
+            movedProjections.increment();
+            return null;
+        }
+        return root;
+    }
+
+    /**
+     The version of the view on the primary, 0 when the plan has no view
+     **/
+    @Override
+    public long getViewVersion(String id) {
+        String version = jedis.hget(PlanView.key(id), PlanView.VERSION);
+        return version == null ? 0 : Long.parseLong(version);
+    }
+
+    /**
+     One MGET per slot on the primary, bypassing the near cache and the replicas
+     **/
+    private List<JsonNode> primaryMultiGet(List<String> keys) {
+        List<JsonNode> nodes = new ArrayList<>(Collections.nCopies(keys.size(), null));
+        for (List<Integer> slot : groupBySlot(keys).values()) {
+            byte[][] rawKeys = new byte[slot.size()][];
+            for (int i = 0; i < rawKeys.length; i++) {
+                rawKeys[i] = SafeEncoder.encode(keys.get(slot.get(i)));
+            }
+            List<byte[]> values = jedis.mget(rawKeys);
+            for (int i = 0; i < values.size(); i++) {
+                nodes.set(slot.get(i), codec.decode(values.get(i)));
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     Only the keys missing from the near cache go to redis, in one MGET per slot (one in total on a standalone redis)
+     **/
+    private List<JsonNode> multiGet(List<String> keys) {
+        List<JsonNode> nodes = new ArrayList<>(keys.size());
+        List<Integer> misses = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            JsonNode cached = (JsonNode) nearCache.get(keys.get(i));
+            nodes.add(cached == null ? null : cached.deepCopy());
+            if (cached == null) misses.add(i);
+        }
+        if (misses.isEmpty()) return nodes;
+
+        long stamp = nearCache.loadStamp();
+        ReplicaRouter.Replica replica = replicas.pick();
+        List<String> missingKeys = new ArrayList<>(misses.size());
+        misses.forEach(i -> missingKeys.add(keys.get(i)));
+        for (List<Integer> slot : groupBySlot(missingKeys).values()) {
+            byte[][] rawKeys = new byte[slot.size()][];
+            for (int i = 0; i < rawKeys.length; i++) {
+                rawKeys[i] = SafeEncoder.encode(missingKeys.get(slot.get(i)));
+            }
+            List<byte[]> values = read(replica, client -> client.mget(rawKeys));
+            for (int i = 0; i < values.size(); i++) {
+                byte[] raw = values.get(i);
+                JsonNode node = codec.decode(raw);
+                if (node == null) continue;
+                int index = misses.get(slot.get(i));
+                if (cacheable(replica)) nearCache.put(keys.get(index), node.deepCopy(), raw.length, stamp);
+                nodes.set(index, node);
+            }
+        }
+        return nodes;
+    }
 
     @Override
     public Long deleteValue(String key) {
-        return jedis.del(key);
+        Long deleted = jedis.del(key);
+        nearCache.invalidate(Collections.singletonList(key));
+        return deleted;
     }
 
     @Override
     public void traverseInput(JsonNode jsonNode) {
+        PlanWriteBatch batch = new PlanWriteBatch();
+        traverseInput(jsonNode, batch);
+        commit(batch);
+    }
+
+    /**
+     jsonNode is a root plan: its objects are keyed for the plan owning them, see PlanKeys
+     **/
+    @Override
+    public void traverseInput(JsonNode jsonNode, PlanWriteBatch batch) {
+        traverseInput(jsonNode, jsonNode.path("objectId").asText(), batch);
+    }
+
+    private void traverseInput(JsonNode jsonNode, String planId, PlanWriteBatch batch) {
         jsonNode.fields().forEachRemaining(e -> {
             JsonNode value = e.getValue();
             if(value.isObject()){
-                traverseInput(value);
-                flattenEntry(e);
+                traverseInput(value, planId, batch);
+                e.setValue(flatten(value, planId, batch));
             }else if(value.isArray()){
                 List<JsonNode> tmp = new ArrayList<>();
                 Iterator<JsonNode> iterator = value.iterator();
                 while(iterator.hasNext()){
                     JsonNode cur = iterator.next();
-                    if(cur.isContainerNode())traverseInput(cur);
-                    tmp.add(flatten(cur));
-                    traverseInput(cur);
+                    if(cur.isContainerNode())traverseInput(cur, planId, batch);
+                    tmp.add(flatten(cur, planId, batch));
                 }
                 if(!tmp.isEmpty()){
                     ((ArrayNode)e.getValue()).removeAll();
@@ -60,60 +388,411 @@ public class PlanRepositoryImpl<T> implements PlanRepository<T> {
         });
     }
 
-    private JsonNode flatten(JsonNode node) {
+    /**
+     Replace the object by its key (PlanKeys.object); the object itself is queued in the batch
+     **/
+    private JsonNode flatten(JsonNode node, String planId, PlanWriteBatch batch) {
         String objectType = node.get("objectType").asText();
         String objectId = node.get("objectId").asText();
-        String id = "id_" + objectType + "_" + objectId;
-
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.configure(SerializationFeature.INDENT_OUTPUT, true);
-        JsonNode flattenNode = mapper.valueToTree(id);
-        //store every object in redis: key(id_objectType_objectId)-value(JsonNode)
-        putValue(id, node.toString());
-        return flattenNode;
+        String id = PlanKeys.object(planId, objectType, objectId);
+        batch.put(id, node, PlanKeys.plan(planId));
+        return TextNode.valueOf(id);
     }
 
-    private void flattenEntry(Map.Entry<String, JsonNode> entry) {
-        entry.setValue(flatten(entry.getValue()));
+    /**
+     Write every queued object in one MULTI/EXEC, so the whole plan becomes visible at once.
+     Index entries are applied at the end of the same MULTI; the views of the indexed plans are WATCHed while their
+     previous entries are read, and the batch is retried when one of them changed in between.
+     Expected versions are checked against the WATCHed views as well: when a view moved to another version, nothing is
+     written and PreconditionFailedException is thrown, so a conditional write never needs a lock.
+     Plans referring to a flat object (see PlanWriteBatch.refer) are added to its set of referrers in the same MULTI.
+     When the batch rewrites the object, the views of the other plans referring to it lose their body, ETag and
+     version, so their next read builds them again with a new ETag. Released objects are deleted along with their
+     last referrer; these sets are WATCHed as well.
+     On a cluster the batch is split by slot and each part gets its own MULTI/EXEC: a plan is still written atomically
+     (the tagged layout keeps it in one slot) but a batch of several plans is not, and the secondary indexes, which
+     live in their own slots, are updated right after the EXEC of each part.
+     The results are those of batch.getOps(), in order, followed by the index and referrer commands on a standalone redis.
+     **/
+    @Override
+    public List<Object> commit(PlanWriteBatch batch) {
+        if (batch.isEmpty()) return Collections.emptyList();
+        if (!cluster) {
+            return commit(batch, 0);
+        }
+        Object[] results = new Object[batch.size()];
+        for (Map.Entry<Integer, PlanWriteBatch> part : batch.split(this::slotOf).entrySet()) {
+            List<Object> partResults = commit(part.getValue(), part.getKey());
+            List<Integer> positions = part.getValue().getPositions();
+            for (int i = 0; i < positions.size(); i++) {
+                results[positions.get(i)] = partResults.get(i);
+            }
+        }
+        return Arrays.asList(results);
     }
 
-    @Override
-    public void populateNestedData(JsonNode parent, Set<String> childIdSet) {
-        if (parent == null) return;
-        while (parent.toString().contains("id_")) {
-            parent.fields().forEachRemaining(e -> {
-                JsonNode value = e.getValue();
-                if (value.isArray()) {
-                    List<JsonNode> tmp = new ArrayList<>();
-                    Iterator<JsonNode> iterator = value.iterator();
-                    while(iterator.hasNext()){
-                        JsonNode cur = iterator.next();
-                        if (cur.asText().startsWith("id_"))tmp.add(cur);
-                        if (cur.isContainerNode()) populateNestedData(cur, childIdSet);
-                        //iterate in Iterator
-                        cur.iterator().forEachRemaining(innerNode -> {
-                            if (innerNode.isContainerNode())
-                                populateNestedData(cur, childIdSet);
-                        });
+    private List<Object> commit(PlanWriteBatch batch, int slot) {
+        for (int attempt = 1; ; attempt++) {
+            Map<String, PlanIndexEntry> previous;
+            Set<String> staleViews = Collections.emptySet();
+            List<Object> results;
+            try (Connection connection = connectionFor(slot)) {
+                previous = watchIndexEntries(connection, batch);
+                Map<String, Set<String>> referrers = watchReferrers(connection, batch);
+                try (Transaction transaction = new Transaction(connection)) {
+                    for (PlanWriteBatch.Op op : batch.getOps()) {
+                        switch (op.getType()) {
+                            case SET:
+                                transaction.set(SafeEncoder.encode(op.getKey()), codec.encode(op.getValue()));
+                                break;
+                            case HSET:
+                                transaction.hset(op.getKey(), op.getHash());
+                                break;
+                            case DEL:
+                                transaction.del(op.getKey());
+                                break;
+                        }
                     }
-                    if (!tmp.isEmpty()) {
-                        ((ArrayNode) e.getValue()).removeAll();
-                        tmp.forEach(s -> {
-                            if (childIdSet != null)childIdSet.add(s.asText());
-                            String originVal = getValue(s.asText());
-                            if (originVal != null){
-                                ((ArrayNode) e.getValue()).add(JsonUtils.stringToNode(originVal));
-                            }
-                        });
+                    if (!cluster) {
+                        for (String id : batch.getUnindexed()) {
+                            removeIndexEntry(transaction, previous.get(id));
+                        }
                     }
-                }else if (value.asText().startsWith("id_")) {
-                    if (childIdSet != null) childIdSet.add(value.asText());
-                    String originVal = getValue(value.asText());
-                    if(originVal == null) originVal="";
-                    e.setValue(JsonUtils.stringToNode(originVal));
+                    for (PlanIndexEntry entry : batch.getIndexed()) {
+                        if (!cluster) {
+                            removeIndexEntry(transaction, previous.get(entry.getId()));
+                            addIndexEntry(transaction, entry);
+                        }
+                        transaction.hset(PlanView.key(entry.getId()), entry.toHash());
+                    }
+                    if (!cluster) staleViews = updateReferrers(transaction, batch, referrers);
+                    results = transaction.exec();
+                }
+                if (results != null && waitForReplicas) waitForReplicas(connection);
+            }
+            if (results != null) {
+                if (cluster) updateIndexEntries(batch, previous);
+                nearCache.invalidate(touchedKeys(batch));
+                if (!staleViews.isEmpty()) nearCache.invalidate(staleViews);
+                return results;
+            }
+            if (attempt >= maxCommitAttempts) {
+                throw new IllegalStateException("Plan changed concurrently " + attempt + " times, giving up the write.");
+            }
+            logger.warn("Plan changed while writing it, retrying (" + attempt + ").");
+        }
+    }
+
+    private void waitForReplicas(Connection connection) {
+        int healthy = replicas.healthyCount();
+        if (healthy == 0) return;
+        long acked = new Jedis(connection).waitReplicas(healthy, waitTimeoutMs);
+        if (acked < healthy) {
+            laggingWrites.increment();
+            logger.warn("Write acknowledged by " + acked + " of " + healthy + " replica(s) within " + waitTimeoutMs + " ms.");
+        }
+    }
+
+    /**
+     Cluster only: the sorted sets of the secondary indexes, outside of the transaction of the plan
+     **/
+    private void updateIndexEntries(PlanWriteBatch batch, Map<String, PlanIndexEntry> previous) {
+        for (String id : batch.getUnindexed()) {
+            removeIndexEntry(previous.get(id));
+        }
+        for (PlanIndexEntry entry : batch.getIndexed()) {
+            PlanIndexEntry old = previous.get(entry.getId());
+            if (old != null && !old.getMember().equals(entry.getMember())) removeIndexEntry(old);
+            jedis.zadd(PlanIndexEntry.CREATED, 0, entry.getMember());
+            if (old != null && old.getOrg() != null && !old.getOrg().equals(entry.getOrg())) {
+                jedis.zrem(PlanIndexEntry.orgKey(old.getOrg()), old.getMember());
+            }
+            if (old != null && old.getPlanType() != null && !old.getPlanType().equals(entry.getPlanType())) {
+                jedis.zrem(PlanIndexEntry.typeKey(old.getPlanType()), old.getMember());
+            }
+            if (entry.getOrg() != null) jedis.zadd(PlanIndexEntry.orgKey(entry.getOrg()), 0, entry.getMember());
+            if (entry.getPlanType() != null) jedis.zadd(PlanIndexEntry.typeKey(entry.getPlanType()), 0, entry.getMember());
+        }
+    }
+
+    private void removeIndexEntry(PlanIndexEntry entry) {
+        if (entry == null) return;
+        jedis.zrem(PlanIndexEntry.CREATED, entry.getMember());
+        if (entry.getOrg() != null) jedis.zrem(PlanIndexEntry.orgKey(entry.getOrg()), entry.getMember());
+        if (entry.getPlanType() != null) jedis.zrem(PlanIndexEntry.typeKey(entry.getPlanType()), entry.getMember());
+    }
+
+    private static Set<String> touchedKeys(PlanWriteBatch batch) {
+        Set<String> keys = new LinkedHashSet<>();
+        batch.getOps().forEach(op -> keys.add(op.getKey()));
+        batch.getUnindexed().forEach(id -> keys.add(PlanView.key(id)));
+        batch.getIndexed().forEach(entry -> keys.add(PlanView.key(entry.getId())));
+        return keys;
+    }
+
+    private Map<String, PlanIndexEntry> watchIndexEntries(Connection connection, PlanWriteBatch batch) {
+        Set<String> ids = new LinkedHashSet<>(batch.getUnindexed());
+        batch.getIndexed().forEach(entry -> ids.add(entry.getId()));
+        ids.addAll(batch.getExpectedVersions().keySet());
+        Map<String, PlanIndexEntry> previous = new HashMap<>();
+        if (ids.isEmpty()) return previous;
+
+        String[] viewKeys = ids.stream().map(PlanView::key).toArray(String[]::new);
+        Jedis client = new Jedis(connection);
+        client.watch(viewKeys);
+        Map<String, Response<List<String>>> responses = new LinkedHashMap<>();
+        Pipeline pipeline = new Pipeline(connection);
+        for (String id : ids) {
+            responses.put(id, pipeline.hmget(PlanView.key(id), PlanIndexEntry.MEMBER_FIELD, PlanIndexEntry.ORG_FIELD, PlanIndexEntry.TYPE_FIELD, PlanView.VERSION));
+        }
+        pipeline.sync();
+        for (Map.Entry<String, Response<List<String>>> response : responses.entrySet()) {
+            String id = response.getKey();
+            List<String> fields = response.getValue().get();
+            Long expected = batch.getExpectedVersions().get(id);
+            if (expected != null && !String.valueOf(expected).equals(fields.get(3))) {
+                client.unwatch();
+                throw new PreconditionFailedException("Plan " + id + " is at version " + fields.get(3) + ", expected " + expected + ".");
+            }
+            if (fields.get(0) != null) {
+                previous.put(id, new PlanIndexEntry(id, fields.get(0), fields.get(1), fields.get(2)));
+            }
+        }
+        return previous;
+    }
+
+    /**
+     WATCH and read the sets of plans referring to the flat objects of the batch, standalone redis only
+     **/
+    private Map<String, Set<String>> watchReferrers(Connection connection, PlanWriteBatch batch) {
+        Map<String, Set<String>> referrers = new HashMap<>();
+        Set<String> shared = new LinkedHashSet<>(batch.getReferences().keySet());
+        shared.addAll(batch.getReleases().keySet());
+        if (cluster || shared.isEmpty()) return referrers;
+        String[] keys = shared.stream().map(PlanKeys::referrers).toArray(String[]::new);
+        new Jedis(connection).watch(keys);
+        Map<String, Response<Set<String>>> responses = new LinkedHashMap<>();
+        Pipeline pipeline = new Pipeline(connection);
+        for (String key : shared) {
+            responses.put(key, pipeline.smembers(PlanKeys.referrers(key)));
+        }
+        pipeline.sync();
+        responses.forEach((key, response) -> referrers.put(key, response.get()));
+        return referrers;
+    }
+
+    /**
+     Add the plans of the batch to the referrers of their flat objects, and drop the views of the other referrers of
+     an object the batch rewrites, unless the batch writes their view too. Remove the releasing plans, and delete the
+     objects they were the last referrers of; an object without recorded referrers was stored before they were
+     recorded and may still be shared, it is kept. Returns the dropped view keys and the deleted objects.
+     **/
+    private static Set<String> updateReferrers(Transaction transaction, PlanWriteBatch batch, Map<String, Set<String>> referrers) {
+        Set<String> written = new HashSet<>();
+        Set<String> views = new HashSet<>();
+        for (PlanWriteBatch.Op op : batch.getOps()) {
+            if (op.getType() == PlanWriteBatch.Type.SET) written.add(op.getKey());
+            if (op.getType() == PlanWriteBatch.Type.HSET) views.add(op.getKey());
+        }
+        Set<String> stale = new LinkedHashSet<>();
+        batch.getReferences().forEach((key, plans) -> {
+            transaction.sadd(PlanKeys.referrers(key), plans.toArray(new String[0]));
+            if (!written.contains(key)) return;
+            for (String other : referrers.getOrDefault(key, Collections.emptySet())) {
+                String view = PlanView.key(other);
+                if (plans.contains(other) || views.contains(view) || !stale.add(view)) continue;
+                transaction.hdel(view, PlanView.BODY, PlanView.ETAG, PlanView.VERSION);
+            }
+        });
+        batch.getReleases().forEach((key, plans) -> {
+            transaction.srem(PlanKeys.referrers(key), plans.toArray(new String[0]));
+            Set<String> left = new HashSet<>(referrers.getOrDefault(key, Collections.emptySet()));
+            if (left.isEmpty() || batch.getReferences().containsKey(key)) return;
+            left.removeAll(plans);
+            if (left.isEmpty() && !written.contains(key)) {
+                transaction.del(key);
+                stale.add(key);
+            }
+        });
+        return stale;
+    }
+
+    private static void removeIndexEntry(Transaction transaction, PlanIndexEntry entry) {
+        if (entry == null) return;
+        transaction.zrem(PlanIndexEntry.CREATED, entry.getMember());
+        if (entry.getOrg() != null) transaction.zrem(PlanIndexEntry.orgKey(entry.getOrg()), entry.getMember());
+        if (entry.getPlanType() != null) transaction.zrem(PlanIndexEntry.typeKey(entry.getPlanType()), entry.getMember());
+    }
+
+    private static void addIndexEntry(Transaction transaction, PlanIndexEntry entry) {
+        transaction.zadd(PlanIndexEntry.CREATED, 0, entry.getMember());
+        if (entry.getOrg() != null) transaction.zadd(PlanIndexEntry.orgKey(entry.getOrg()), 0, entry.getMember());
+        if (entry.getPlanType() != null) transaction.zadd(PlanIndexEntry.typeKey(entry.getPlanType()), 0, entry.getMember());
+    }
+
+    @Override
+    public PlanView getView(String id) {
+        return getView(id, 0);
+    }
+
+    /**
+     minVersion is the newest version the client has seen (from its ETag): with read-your-writes etag, a copy older
+     than that, in the near cache or on the replica, is read again from the primary
+     **/
+    @Override
+    public PlanView getView(String id, long minVersion) {
+        String key = PlanView.key(id);
+        PlanView cached = (PlanView) nearCache.get(key);
+        if (cached != null && cached.getVersion() >= minVersion) return cached;
+        long stamp = nearCache.loadStamp();
+        ReplicaRouter.Replica replica = replicas.pick();
+        PlanView view = read(replica, client -> readView(client, id));
+        if (replica != null && pinFreshReads && (view == null ? minVersion > 0 : view.getVersion() < minVersion)) {
+            pinnedReads.increment();
+            replica = null;
+            view = readView(jedis, id);
+        }
+        if (view == null) return null;
+        if (cacheable(replica)) {
+            nearCache.put(key, view, view.getBody().length() + (view.getEtag() == null ? 0 : view.getEtag().length()), stamp);
+        }
+        return view;
+    }
+
+    /**
+     The view as stored on the primary, never from the near cache or a replica: conditional writes check their ETag against it
+     **/
+    @Override
+    public PlanView getViewForUpdate(String id) {
+        return readView(jedis, id);
+    }
+
+    private static PlanView readView(UnifiedJedis client, String id) {
+        return toView(client.hmget(PlanView.key(id), PlanView.BODY, PlanView.ETAG, PlanView.VERSION));
+    }
+
+    private static PlanView toView(List<String> fields) {
+        if (fields.get(0) == null) return null;
+        return new PlanView(fields.get(0), fields.get(1), fields.get(2) == null ? 0L : Long.parseLong(fields.get(2)));
+    }
+
+    /**
+     Several views in one round trip per slot, aligned with ids: null for a plan without a view.
+     Each view is one HMGET, so its body and ETag always belong to the same write.
+     **/
+    @Override
+    public List<PlanView> getViews(List<String> ids) {
+        List<PlanView> views = new ArrayList<>(ids.size());
+        List<String> viewKeys = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            views.add((PlanView) nearCache.get(PlanView.key(id)));
+            viewKeys.add(PlanView.key(id));
+        }
+        long stamp = nearCache.loadStamp();
+        ReplicaRouter.Replica replica = replicas.pick();
+        for (Map.Entry<Integer, List<Integer>> slot : groupBySlot(viewKeys).entrySet()) {
+            if (replica != null) {
+                try (Connection connection = replica.getClient().getPool().getResource()) {
+                    pipelineViews(connection, slot.getValue(), viewKeys, views);
+                    continue;
+                } catch (JedisConnectionException ex) {
+                    replicas.markDown(replica, ex.getMessage());
+                    replica = null;
                 }
-            });
+            }
+            try (Connection connection = connectionFor(slot.getKey())) {
+                pipelineViews(connection, slot.getValue(), viewKeys, views);
+            }
         }
+        if (cacheable(replica)) {
+            for (int i = 0; i < views.size(); i++) {
+                PlanView view = views.get(i);
+                if (view == null) continue;
+                nearCache.put(viewKeys.get(i), view, view.getBody().length() + (view.getEtag() == null ? 0 : view.getEtag().length()), stamp);
+            }
+        }
+        return views;
+    }
+
+    private static void pipelineViews(Connection connection, List<Integer> positions, List<String> viewKeys, List<PlanView> views) {
+        Pipeline pipeline = new Pipeline(connection);
+        Map<Integer, Response<List<String>>> responses = new LinkedHashMap<>();
+        for (int i : positions) {
+            if (views.get(i) == null) responses.put(i, pipeline.hmget(viewKeys.get(i), PlanView.BODY, PlanView.ETAG, PlanView.VERSION));
+        }
+        pipeline.sync();
+        responses.forEach((i, response) -> views.set(i, toView(response.get())));
+    }
+
+    /**
+     Versions come from one sequence shared by all plans, so an ETag is never reused, even after delete and re-create
+     **/
+    @Override
+    public long nextVersion() {
+        return jedis.incr(versionSequence);
+    }
+
+    /**
+     Reserve count versions at once, returns the last one: the reserved range is [last - count + 1, last]
+     **/
+    @Override
+    public long nextVersions(int count) {
+        return jedis.incrBy(versionSequence, count);
+    }
+
+    /**
+     Bumped by the indexer after every change applied to elasticsearch, so results derived from the index can be cached until it moves
+     **/
+    @Override
+    public long indexGeneration() {
+        String generation = jedis.get(indexGeneration);
+        return generation == null ? 0 : Long.parseLong(generation);
+    }
+
+    @Override
+    public long bumpIndexGeneration() {
+        return jedis.incr(indexGeneration);
+    }
+
+    /**
+     Index a reindex is loading, null when none: shared in redis so the indexer mirrors its writes there on every
+     instance, not only on the one running the reindex
+     **/
+    @Override
+    public String getMirrorIndex() {
+        return jedis.get(mirrorIndex);
+    }
+
+    /**
+     Start mirroring to index with no tombstones, or stop when index is null
+     **/
+    @Override
+    public void setMirrorIndex(String index) {
+        jedis.del(mirrorTombstones);
+        if (index == null) {
+            jedis.del(mirrorIndex);
+        } else {
+            jedis.set(mirrorIndex, index);
+        }
+    }
+
+    /**
+     Documents deleted while the mirror index was loaded, see ElasticsearchService.purgeMirrorTombstones
+     **/
+    @Override
+    public Set<String> getMirrorTombstones() {
+        return jedis.smembers(mirrorTombstones);
+    }
+
+    @Override
+    public void updateMirrorTombstones(Collection<String> added, Collection<String> removed) {
+        if (!removed.isEmpty()) jedis.srem(mirrorTombstones, removed.toArray(new String[0]));
+        if (!added.isEmpty()) jedis.sadd(mirrorTombstones, added.toArray(new String[0]));
+    }
+
+    @Override
+    public void populateNestedData(JsonNode parent, Set<String> childIdSet) {
+        hydrator.hydrate(parent, childIdSet);
     }
 
     @Override
@@ -121,13 +800,119 @@ public class PlanRepositoryImpl<T> implements PlanRepository<T> {
         Set<String> childIdSet = new HashSet<>();
         childIdSet.add(id);
 
-        populateNestedData(JsonUtils.stringToNode(getValue(id)), childIdSet);
+        populateNestedData(getNode(id), childIdSet);
+
+        //delete every object the plan owns and the view in one MULTI/EXEC, flat children are released
+        List<String> childIds = new ArrayList<>();
+        PlanWriteBatch batch = new PlanWriteBatch();
+        for (String childId : childIdSet) {
+            if (childId.equals(id) || PlanKeys.isTagged(childId)) {
+                childIds.add(childId);
+                batch.delete(childId);
+            } else {
+                batch.release(childId, id);
+            }
+        }
+        batch.delete(PlanView.key(id));
+        batch.unindex(id);
+        List<Object> results = commit(batch);
 
         List<String> undeleted = new ArrayList<>();
-        for(String childId: childIdSet){
-            if(deleteValue(childId)==0)undeleted.add(id);
+        for(int i = 0; i < childIds.size(); i++){
+            if(Long.valueOf(0L).equals(results.get(i)))undeleted.add(childIds.get(i));
         }
         return undeleted;
 
     }
+
+    /**
+     One SCAN step over the root plan keys. SCAN never blocks the server, may return a key twice,
+     and returns every key that exists for the whole iteration at least once.
+     A cluster cannot be SCANned as a whole, there the pages come from the creation index instead (see listPlans).
+     **/
+    @Override
+    public PlanKeyPage scanPlans(String cursor, int count) {
+        if (cluster) {
+            return listPlans(null, null, cursor, count, false);
+        }
+        return scanKeys(planKeyPattern, cursor, count);
+    }
+
+    /**
+     One SCAN step over the keys matching pattern, standalone redis only
+     **/
+    @Override
+    public PlanKeyPage scanKeys(String pattern, String cursor, int count) {
+        if (cluster) {
+            throw new UnsupportedOperationException("SCAN over all keys is not supported on a Redis Cluster.");
+        }
+        ScanResult<String> result = jedis.scan(cursor == null ? ScanParams.SCAN_POINTER_START : cursor,
+                new ScanParams().match(pattern).count(count));
+        return new PlanKeyPage(result.getResult(), result.isCompleteIteration() ? null : result.getCursor());
+    }
+
+    @Override
+    public boolean isCluster() {
+        return cluster;
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("mode", cluster ? "cluster" : "standalone");
+        stats.put("keyLayout", keyLayout);
+        stats.put("replicas", replicas.getStats());
+        stats.put("readYourWrites", replicas.isEnabled() ? readYourWrites : null);
+        stats.put("pinnedReads", pinnedReads.sum());
+        stats.put("laggingWrites", laggingWrites.sum());
+        stats.put("movedProjections", movedProjections.sum());
+        return stats;
+    }
+
+    /**
+     Keyset page of root plan keys in creationDate order (then objectId), read from the secondary indexes.
+     after is the cursor returned with the previous page. With both filters the smaller index is walked
+     and its members are checked against the other one with ZMSCORE.
+     **/
+    @Override
+    public PlanKeyPage listPlans(String org, String planType, String after, int size, boolean descending) {
+        String index = PlanIndexEntry.CREATED;
+        String filter = null;
+        if (org != null && planType != null) {
+            String orgKey = PlanIndexEntry.orgKey(org);
+            String typeKey = PlanIndexEntry.typeKey(planType);
+            boolean orgSmaller = read(replicas.pick(), client -> client.zcard(orgKey) <= client.zcard(typeKey));
+            index = orgSmaller ? orgKey : typeKey;
+            filter = orgSmaller ? typeKey : orgKey;
+        } else if (org != null) {
+            index = PlanIndexEntry.orgKey(org);
+        } else if (planType != null) {
+            index = PlanIndexEntry.typeKey(planType);
+        }
+
+        ReplicaRouter.Replica replica = replicas.pick();
+        String range = index;
+        String within = filter;
+        List<String> keys = new ArrayList<>(size);
+        String cursor = after;
+        int chunk = filter == null ? size : Math.max(size * 2, 100);
+        while (keys.size() < size) {
+            String from = cursor;
+            List<String> members = read(replica, client -> descending
+                    ? client.zrevrangeByLex(range, from == null ? "+" : "(" + from, "-", 0, chunk)
+                    : client.zrangeByLex(range, from == null ? "-" : "(" + from, "+", 0, chunk));
+            List<Double> inFilter = filter == null || members.isEmpty() ? null
+                    : read(replica, client -> client.zmscore(within, members.toArray(new String[0])));
+            for (int i = 0; i < members.size() && keys.size() < size; i++) {
+                cursor = members.get(i);
+                if (inFilter == null || inFilter.get(i) != null) {
+                    keys.add(PlanKeys.plan(PlanIndexEntry.objectId(cursor)));
+                }
+            }
+            if (members.size() < chunk) {
+                return new PlanKeyPage(keys, keys.size() < size ? null : cursor);
+            }
+        }
+        return new PlanKeyPage(keys, cursor);
+    }
 }
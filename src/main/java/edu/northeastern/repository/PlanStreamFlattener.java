@@ -0,0 +1,216 @@
+package edu.northeastern.repository;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import edu.northeastern.utils.StreamingSchema;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.*;
+
+/**
+ One pass over a POSTed plan with the streaming parser, replacing readTree, schema validation, traverseInput and
+ toString: every token is checked against the streaming plan schema, copied to the compact body of the view, and
+ every nested object is flattened as it closes, so the plan never exists as a whole tree, only as its flattened
+ objects. Keys contain the root objectId (PlanKeys), which may come after the nested objects: references are set
+ once the root is read. Invalid plans, duplicate members included, are reported in getErrors and the parser is left
+ after the plan, so a stream of plans (POST /plan/_bulk) goes on with the next one.
+ **/
+public class PlanStreamFlattener {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final JsonFactory factory = mapper.getFactory();
+    private static final List<String> referenceFields = Arrays.asList("objectId", "objectType");
+
+    private final JsonParser parser;
+    private final JsonGenerator body;
+    private final StringWriter bodyWriter = new StringWriter();
+    private final List<JsonNode> errors = new ArrayList<>();
+    //nested objects in the order traverseInput queues them, children first
+    private final List<Nested> nested = new ArrayList<>();
+    private ObjectNode root;
+
+    private PlanStreamFlattener(JsonParser parser) throws IOException {
+        this.parser = parser;
+        body = factory.createGenerator(bodyWriter);
+    }
+
+    /**
+     Throws JsonProcessingException when json is malformed
+     **/
+    public static PlanStreamFlattener flatten(String json, StreamingSchema schema) throws IOException {
+        try (JsonParser parser = factory.createParser(json)) {
+            parser.nextToken();
+            return flatten(parser, schema);
+        }
+    }
+
+    /**
+     Read the plan starting at the current token of parser, which is left on its last token
+     **/
+    public static PlanStreamFlattener flatten(JsonParser parser, StreamingSchema schema) throws IOException {
+        PlanStreamFlattener flattener = new PlanStreamFlattener(parser);
+        try {
+            flattener.readRoot(schema);
+        } finally {
+            flattener.body.close();
+        }
+        return flattener;
+    }
+
+    private void readRoot(StreamingSchema schema) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == null) {
+            errors.add(StreamingSchema.missingError("", schema.missing(Collections.emptySet())));
+            return;
+        }
+        schema.checkType(token, "", errors);
+        if (token != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        body.writeStartObject();
+        root = readObject(schema, "", false);
+        body.writeEndObject();
+        if (!errors.isEmpty()) return;
+        String planId = getObjectId();
+        for (Nested object : nested) {
+            object.reference(PlanKeys.object(planId, object.objectType, object.objectId));
+        }
+    }
+
+    private ObjectNode readObject(StreamingSchema schema, String pointer, boolean isNested) throws IOException {
+        ObjectNode node = JsonNodeFactory.instance.objectNode();
+        Set<String> present = new HashSet<>();
+        String field;
+        while ((field = parser.nextFieldName()) != null) {
+            String at = pointer + "/" + field.replace("~", "~0").replace("/", "~1");
+            if (!present.add(field)) {
+                errors.add(StreamingSchema.duplicateError(at));
+            }
+            body.writeFieldName(field);
+            JsonToken token = parser.nextToken();
+            StreamingSchema fieldSchema = schema.property(field);
+            fieldSchema.checkType(token, at, errors);
+            if (token == JsonToken.START_OBJECT) {
+                body.writeStartObject();
+                ObjectNode child = readObject(fieldSchema, at, true);
+                body.writeEndObject();
+                node.set(field, NullNode.getInstance());
+                nested.add(new Nested(child, node, field, -1));
+            } else if (token == JsonToken.START_ARRAY) {
+                body.writeStartArray();
+                node.set(field, readArray(fieldSchema, at));
+                body.writeEndArray();
+            } else {
+                body.copyCurrentEvent(parser);
+                node.set(field, mapper.readTree(parser));
+            }
+        }
+        //nested objects are stored under a key made of their objectType and objectId
+        Set<String> missing = new LinkedHashSet<>(schema.missing(present));
+        if (isNested) {
+            referenceFields.forEach(name -> {
+                if (!present.contains(name)) missing.add(name);
+            });
+        }
+        if (!missing.isEmpty()) errors.add(StreamingSchema.missingError(pointer, missing));
+        return node;
+    }
+
+    private ArrayNode readArray(StreamingSchema schema, String pointer) throws IOException {
+        ArrayNode array = JsonNodeFactory.instance.arrayNode();
+        JsonToken token;
+        for (int i = 0; (token = parser.nextToken()) != JsonToken.END_ARRAY; i++) {
+            String at = pointer + "/" + i;
+            StreamingSchema itemSchema = schema.item(i);
+            int reported = errors.size();
+            itemSchema.checkType(token, at, errors);
+            if (token != JsonToken.START_OBJECT) {
+                //every item is flattened, so only objects can be stored
+                if (errors.size() == reported) errors.add(StreamingSchema.typeError(at, token, Collections.singleton("object")));
+                body.copyCurrentStructure(parser);
+                continue;
+            }
+            body.writeStartObject();
+            ObjectNode child = readObject(itemSchema, at, true);
+            body.writeEndObject();
+            array.add(NullNode.getInstance());
+            nested.add(new Nested(child, array, null, array.size() - 1));
+        }
+        return array;
+    }
+
+    public List<JsonNode> getErrors() {
+        return errors;
+    }
+
+    /**
+     The root with its nested objects replaced by their keys, like traverseInput leaves it
+     **/
+    public ObjectNode getRoot() {
+        return root;
+    }
+
+    public String getObjectId() {
+        return root.path("objectId").asText();
+    }
+
+    public String getObjectType() {
+        return root.path("objectType").asText();
+    }
+
+    /**
+     The plan as compact json, the body of its view
+     **/
+    public String getBody() {
+        return bodyWriter.toString();
+    }
+
+    /**
+     Queue the nested objects in the batch; the root is left to the caller
+     **/
+    public void queueObjects(PlanWriteBatch batch) {
+        String planKey = PlanKeys.plan(getObjectId());
+        for (Nested object : nested) {
+            batch.put(object.key, object.node, planKey);
+        }
+    }
+
+    private static class Nested {
+        private final ObjectNode node;
+        private final String objectType;
+        private final String objectId;
+        private final JsonNode parent;
+        private final String field;
+        private final int index;
+        private String key;
+
+        Nested(ObjectNode node, JsonNode parent, String field, int index) {
+            this.node = node;
+            this.objectType = node.path("objectType").asText();
+            this.objectId = node.path("objectId").asText();
+            this.parent = parent;
+            this.field = field;
+            this.index = index;
+        }
+
+        void reference(String key) {
+            this.key = key;
+            if (field != null) {
+                ((ObjectNode) parent).set(field, TextNode.valueOf(key));
+            } else {
+                ((ArrayNode) parent).set(index, TextNode.valueOf(key));
+            }
+        }
+    }
+}
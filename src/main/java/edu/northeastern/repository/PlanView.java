@@ -0,0 +1,50 @@
+package edu.northeastern.repository;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ Materialized view of a plan: the fully hydrated document, its version and the ETag derived from it,
+ stored as a redis hash next to the flattened objects (key view_id_plan_planId) and rewritten on every POST/PATCH.
+ **/
+public class PlanView {
+
+    public static final String PREFIX = "view_";
+    public static final String BODY = "body";
+    public static final String ETAG = "etag";
+    public static final String VERSION = "version";
+
+    private final String body;
+    private final String etag;
+    private final long version;
+
+    public PlanView(String body, String etag, long version) {
+        this.body = body;
+        this.etag = etag;
+        this.version = version;
+    }
+
+    public static String key(String id) {
+        return PREFIX + id;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    Map<String, String> toHash() {
+        Map<String, String> hash = new HashMap<>();
+        hash.put(BODY, body);
+        hash.put(ETAG, etag);
+        hash.put(VERSION, String.valueOf(version));
+        return hash;
+    }
+}
@@ -0,0 +1,191 @@
+package edu.northeastern.repository;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+/**
+ Collects the redis writes of one plan (flattened objects with key id_objectType_objectId, its view, deletes,
+ secondary index entries) so they can be applied in a single MULTI/EXEC round trip by PlanRepository.commit.
+ **/
+public class PlanWriteBatch {
+
+    public enum Type { SET, HSET, DEL }
+
+    public static class Op {
+        private final Type type;
+        private final String key;
+        private final JsonNode value;
+        private final Map<String, String> hash;
+
+        private Op(Type type, String key, JsonNode value, Map<String, String> hash) {
+            this.type = type;
+            this.key = key;
+            this.value = value;
+            this.hash = hash;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public JsonNode getValue() {
+            return value;
+        }
+
+        public Map<String, String> getHash() {
+            return hash;
+        }
+    }
+
+    private final List<Op> ops = new ArrayList<>();
+    private final List<PlanIndexEntry> indexed = new ArrayList<>();
+    private final List<String> unindexed = new ArrayList<>();
+    private final Map<String, Long> expectedVersions = new LinkedHashMap<>();
+    private final Map<String, Set<String>> references = new LinkedHashMap<>();
+    private final Map<String, Set<String>> releases = new LinkedHashMap<>();
+    //parts made by split: position of each op in the batch it was split from
+    private final List<Integer> positions = new ArrayList<>();
+
+    /**
+     Queue an object; it is encoded with the repository's value codec on commit.
+     The node must not be modified afterwards.
+     **/
+    public void put(String key, JsonNode value) {
+        ops.add(new Op(Type.SET, key, value, null));
+    }
+
+    /**
+     Queue an object of the plan stored under planKey, see refer
+     **/
+    public void put(String key, JsonNode value, String planKey) {
+        put(key, value);
+        refer(key, planKey);
+    }
+
+    /**
+     Record that the plan stored under planKey refers to the object stored under key. Only flat keys are recorded:
+     with the flat layout an object may be shared by several plans, and a plan rewriting it makes the views of the
+     others stale, see PlanRepository.commit
+     **/
+    public void refer(String key, String planKey) {
+        if (PlanKeys.isTagged(key) || key.equals(planKey)) return;
+        references.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(planKey);
+    }
+
+    /**
+     Record that the plan stored under planKey no longer refers to the flat object stored under key.
+     The object is deleted with the last plan referring to it, see PlanRepository.commit
+     **/
+    public void release(String key, String planKey) {
+        if (PlanKeys.isTagged(key) || key.equals(planKey)) return;
+        releases.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(planKey);
+    }
+
+    public void putView(String id, PlanView view) {
+        ops.add(new Op(Type.HSET, PlanView.key(id), null, view.toHash()));
+    }
+
+    public void delete(String key) {
+        ops.add(new Op(Type.DEL, key, null, null));
+    }
+
+    /**
+     Add the root plan to the secondary indexes, replacing the entry of its previous version
+     **/
+    public void index(PlanIndexEntry entry) {
+        indexed.add(entry);
+    }
+
+    /**
+     Remove the root plan stored under id from the secondary indexes
+     **/
+    public void unindex(String id) {
+        unindexed.add(id);
+    }
+
+    /**
+     Apply the batch only if the view of the plan stored under id still has this version, see PlanRepository.commit
+     **/
+    public void expectVersion(String id, long version) {
+        expectedVersions.put(id, version);
+    }
+
+    public List<Op> getOps() {
+        return ops;
+    }
+
+    /**
+     The plain values queued by put, last write wins
+     **/
+    public Map<String, JsonNode> getValues() {
+        Map<String, JsonNode> values = new LinkedHashMap<>();
+        for (Op op : ops) {
+            if (op.type == Type.SET) values.put(op.key, op.value);
+        }
+        return values;
+    }
+
+    public List<PlanIndexEntry> getIndexed() {
+        return indexed;
+    }
+
+    public List<String> getUnindexed() {
+        return unindexed;
+    }
+
+    public Map<String, Long> getExpectedVersions() {
+        return expectedVersions;
+    }
+
+    public Map<String, Set<String>> getReferences() {
+        return references;
+    }
+
+    public Map<String, Set<String>> getReleases() {
+        return releases;
+    }
+
+    /**
+     Split the batch by cluster slot: each op goes with the slot of its key, index entries and expected versions
+     with the slot of the plan's view. getPositions() of a part maps its ops back to this batch.
+     **/
+    public Map<Integer, PlanWriteBatch> split(ToIntFunction<String> slotOf) {
+        Map<Integer, PlanWriteBatch> parts = new LinkedHashMap<>();
+        for (int i = 0; i < ops.size(); i++) {
+            PlanWriteBatch part = parts.computeIfAbsent(slotOf.applyAsInt(ops.get(i).key), k -> new PlanWriteBatch());
+            part.ops.add(ops.get(i));
+            part.positions.add(i);
+        }
+        for (PlanIndexEntry entry : indexed) {
+            parts.computeIfAbsent(slotOf.applyAsInt(PlanView.key(entry.getId())), k -> new PlanWriteBatch()).indexed.add(entry);
+        }
+        for (String id : unindexed) {
+            parts.computeIfAbsent(slotOf.applyAsInt(PlanView.key(id)), k -> new PlanWriteBatch()).unindexed.add(id);
+        }
+        expectedVersions.forEach((id, version) ->
+                parts.computeIfAbsent(slotOf.applyAsInt(PlanView.key(id)), k -> new PlanWriteBatch()).expectedVersions.put(id, version));
+        references.forEach((key, plans) ->
+                parts.computeIfAbsent(slotOf.applyAsInt(key), k -> new PlanWriteBatch()).references.put(key, plans));
+        releases.forEach((key, plans) ->
+                parts.computeIfAbsent(slotOf.applyAsInt(key), k -> new PlanWriteBatch()).releases.put(key, plans));
+        return parts;
+    }
+
+    List<Integer> getPositions() {
+        return positions;
+    }
+
+    public int size() {
+        return ops.size();
+    }
+
+    public boolean isEmpty() {
+        return ops.isEmpty() && indexed.isEmpty() && unindexed.isEmpty() && references.isEmpty() && releases.isEmpty();
+    }
+}
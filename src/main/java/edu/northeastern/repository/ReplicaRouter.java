@@ -0,0 +1,133 @@
+package edu.northeastern.repository;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.*;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ Read replicas of the standalone primary. Reads pick a healthy replica round-robin; a replica is healthy while it
+ answers and reports master_link_status:up, checked every healthIntervalMs and on every failed read, so reads fail
+ over to the other replicas and to the primary when none is left. Writes never go through here.
+ To try it locally: redis-server --port 6380 --replicaof localhost 6379, then plan.redis.replicas=localhost:6380
+ **/
+public class ReplicaRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaRouter.class);
+
+    private final List<Replica> replicas = new ArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService healthChecker;
+
+    public ReplicaRouter(List<HostAndPort> nodes, JedisClientConfig clientConfig, GenericObjectPoolConfig<Connection> poolConfig, long healthIntervalMs) {
+        for (HostAndPort node : nodes) {
+            replicas.add(new Replica(node, new JedisPooled(poolConfig, node, clientConfig)));
+        }
+        if (replicas.isEmpty()) {
+            healthChecker = null;
+            return;
+        }
+        healthChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "plan-replica-health");
+            thread.setDaemon(true);
+            return thread;
+        });
+        healthChecker.scheduleWithFixedDelay(this::checkHealth, 0, healthIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isEnabled() {
+        return !replicas.isEmpty();
+    }
+
+    /**
+     A healthy replica to read from, null to read from the primary
+     **/
+    public Replica pick() {
+        int size = replicas.size();
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get(Math.floorMod(next.getAndIncrement(), size));
+            if (replica.healthy) {
+                replica.reads.increment();
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    /**
+     A read on the replica failed: it is left out until the health check finds it up again
+     **/
+    public void markDown(Replica replica, String reason) {
+        replica.failures.increment();
+        if (replica.healthy) {
+            replica.healthy = false;
+            logger.warn("Replica " + replica.node + " marked down: " + reason);
+        }
+    }
+
+    public int healthyCount() {
+        int healthy = 0;
+        for (Replica replica : replicas) {
+            if (replica.healthy) healthy++;
+        }
+        return healthy;
+    }
+
+    private void checkHealth() {
+        for (Replica replica : replicas) {
+            boolean healthy;
+            try (Connection connection = replica.client.getPool().getResource()) {
+                String info = new Jedis(connection).info("replication");
+                healthy = info.contains("master_link_status:up");
+            } catch (Exception ex) {
+                healthy = false;
+            }
+            if (healthy != replica.healthy) {
+                logger.info("Replica " + replica.node + (healthy ? " is up" : " is down or not in sync with the primary"));
+            }
+            replica.healthy = healthy;
+        }
+    }
+
+    public void close() {
+        if (healthChecker != null) healthChecker.shutdownNow();
+        replicas.forEach(replica -> replica.client.close());
+    }
+
+    public List<Map<String, Object>> getStats() {
+        List<Map<String, Object>> stats = new ArrayList<>();
+        for (Replica replica : replicas) {
+            Map<String, Object> replicaStats = new LinkedHashMap<>();
+            replicaStats.put("node", replica.node.toString());
+            replicaStats.put("healthy", replica.healthy);
+            replicaStats.put("reads", replica.reads.sum());
+            replicaStats.put("failures", replica.failures.sum());
+            stats.add(replicaStats);
+        }
+        return stats;
+    }
+
+    public static class Replica {
+        private final HostAndPort node;
+        private final JedisPooled client;
+        private volatile boolean healthy;
+        private final LongAdder reads = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+
+        Replica(HostAndPort node, JedisPooled client) {
+            this.node = node;
+            this.client = client;
+        }
+
+        public JedisPooled getClient() {
+            return client;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package edu.northeastern.repository;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ Turns the flattened objects into the bytes stored in redis and back.
+ Implementations must still read values written as plain JSON text by older versions.
+ **/
+public interface ValueCodec {
+
+    String name();
+
+    byte[] encode(JsonNode node);
+
+    JsonNode decode(byte[] bytes);
+}
@@ -1,43 +1,88 @@
 package edu.northeastern.utils;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import javax.servlet.http.HttpServletRequest;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 
+/**
+ ETags are version stamps: every write of a plan takes a new version from a redis sequence and
+ stores it with the plan, so requests compare header values against the stored ETag and never hash the payload.
+ **/
 @Component
 public class ETagUtils {
 
-    private static final Logger logger = LoggerFactory.getLogger(ETagUtils.class);
+    private static final String WEAK_PREFIX = "W/";
+    private static final String ANY = "*";
 
-    public boolean verifyEtag(HttpServletRequest request, String value) {
+    public String versionEtag(long version) {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     ETag of a partial representation (a projection): it changes with the plan, but never satisfies If-Match.
+     variant names the projection, so the tag of one projection never matches another one: W/"3-1a2b3c"
+     **/
+    public String weakEtag(String etag, String variant) {
+        return WEAK_PREFIX + "\"" + stripWeak(etag).replace("\"", "") + "-" + variant + "\"";
+    }
+
+    /**
+     If-Match: strong comparison against the stored ETag, a weak tag never matches
+     **/
+    public boolean verifyEtag(HttpServletRequest request, String etag) {
         String ifMatch = request.getHeader("If-Match");
-        if(ifMatch==null)return false;
-        String etag = generateEtag(value);
-        if(!etag.equals(ifMatch))return false;
-        return true;
-    }
-
-    public String generateEtag(String body) {
-        try{
-            byte[] hashBody = MessageDigest.getInstance("MD5").digest(body.getBytes(StandardCharsets.UTF_8));
-            StringBuilder hexSb = new StringBuilder();
-            for (byte b : hashBody) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1){
-                    hexSb.append('0');
-                }
-                hexSb.append(hex);
+        if(ifMatch==null || etag==null)return false;
+        for (String candidate : ifMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals(ANY) || (!isWeak(candidate) && candidate.equals(etag))) return true;
+        }
+        return false;
+    }
+
+    /**
+     If-None-Match: weak comparison against the stored ETag, W/"3" matches "3"
+     **/
+    public boolean matchesIfNoneMatch(HttpServletRequest request, String etag) {
+        return weakMatches(request.getHeader("If-None-Match"), etag);
+    }
+
+    /**
+     Weak comparison of a list of ETags (header syntax) against the stored ETag
+     **/
+    public boolean weakMatches(String candidates, String etag) {
+        if(candidates==null || etag==null)return false;
+        String opaque = stripWeak(etag);
+        for (String candidate : candidates.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals(ANY) || stripWeak(candidate).equals(opaque)) return true;
+        }
+        return false;
+    }
+
+    /**
+     Highest version among the ETags of a header, 0 when there is none
+     **/
+    public long newestVersion(String candidates) {
+        long newest = 0;
+        if(candidates==null)return newest;
+        for (String candidate : candidates.split(",")) {
+            String opaque = stripWeak(candidate.trim()).replace("\"", "");
+            //the version leads the tag, a weak one goes on with its variant
+            int end = opaque.indexOf('-');
+            try {
+                newest = Math.max(newest, Long.parseLong(end < 0 ? opaque : opaque.substring(0, end)));
+            } catch (NumberFormatException ex) {
+                //* or an ETag from before versions
             }
-            return hexSb.toString();
-        }catch (NoSuchAlgorithmException ex){
-            logger.error("Error occurred when generating eTag. "+ ex.getMessage());
-            ex.printStackTrace();
-            return null;
         }
+        return newest;
+    }
+
+    private static boolean isWeak(String etag) {
+        return etag.startsWith(WEAK_PREFIX);
+    }
+
+    private static String stripWeak(String etag) {
+        return isWeak(etag) ? etag.substring(WEAK_PREFIX.length()) : etag;
     }
 }
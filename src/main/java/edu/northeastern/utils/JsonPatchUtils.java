@@ -0,0 +1,161 @@
+package edu.northeastern.utils;
+
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import edu.northeastern.excpetions.InvalidPatchException;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ JSON Merge Patch (RFC 7396) and JSON Patch (RFC 6902). Both work on a copy, the target is never modified.
+ **/
+public class JsonPatchUtils {
+
+    public static final String MERGE_PATCH = "application/merge-patch+json";
+    public static final String JSON_PATCH = "application/json-patch+json";
+
+    /**
+     RFC 7396: objects are merged recursively, null removes a member, any other value replaces the target
+     **/
+    public static JsonNode mergePatch(JsonNode target, JsonNode patch) {
+        if (!patch.isObject()) {
+            return patch.deepCopy();
+        }
+        ObjectNode result = target != null && target.isObject() ? target.deepCopy() : JsonNodeFactory.instance.objectNode();
+        Iterator<Map.Entry<String, JsonNode>> fields = patch.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> e = fields.next();
+            if (e.getValue().isNull()) {
+                result.remove(e.getKey());
+            } else {
+                result.set(e.getKey(), mergePatch(result.get(e.getKey()), e.getValue()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     RFC 6902: apply the operations (add, remove, replace, move, copy, test) in order, all or nothing
+     **/
+    public static JsonNode applyPatch(JsonNode target, JsonNode operations) {
+        if (!operations.isArray()) {
+            throw new InvalidPatchException("A JSON Patch document must be an array of operations.");
+        }
+        JsonNode result = target.deepCopy();
+        for (JsonNode operation : operations) {
+            String op = operation.path("op").asText();
+            JsonPointer path = pointer(operation, "path");
+            switch (op) {
+                case "add":
+                    result = add(result, path, value(operation));
+                    break;
+                case "remove":
+                    result = remove(result, path);
+                    break;
+                case "replace":
+                    result = remove(result, path);
+                    result = add(result, path, value(operation));
+                    break;
+                case "move": {
+                    JsonPointer from = pointer(operation, "from");
+                    if (path.toString().startsWith(from.toString() + "/")) {
+                        throw new InvalidPatchException("Cannot move " + from + " into its own child " + path + ".");
+                    }
+                    JsonNode moved = get(result, from);
+                    result = remove(result, from);
+                    result = add(result, path, moved);
+                    break;
+                }
+                case "copy":
+                    result = add(result, path, get(result, pointer(operation, "from")).deepCopy());
+                    break;
+                case "test":
+                    if (!get(result, path).equals(value(operation))) {
+                        throw new InvalidPatchException("Test failed at " + path + ".");
+                    }
+                    break;
+                default:
+                    throw new InvalidPatchException("Unknown JSON Patch operation: " + op);
+            }
+        }
+        return result;
+    }
+
+    private static JsonPointer pointer(JsonNode operation, String member) {
+        JsonNode value = operation.get(member);
+        if (value == null || !value.isTextual()) {
+            throw new InvalidPatchException("Operation " + operation + " has no '" + member + "'.");
+        }
+        try {
+            return JsonPointer.compile(value.asText());
+        } catch (IllegalArgumentException ex) {
+            throw new InvalidPatchException("Invalid JSON pointer " + value.asText() + ": " + ex.getMessage());
+        }
+    }
+
+    private static JsonNode value(JsonNode operation) {
+        JsonNode value = operation.get("value");
+        if (value == null) {
+            throw new InvalidPatchException("Operation " + operation + " has no 'value'.");
+        }
+        return value.deepCopy();
+    }
+
+    private static JsonNode get(JsonNode root, JsonPointer path) {
+        JsonNode node = root.at(path);
+        if (node.isMissingNode()) {
+            throw new InvalidPatchException("No value at " + path + ".");
+        }
+        return node;
+    }
+
+    private static JsonNode add(JsonNode root, JsonPointer path, JsonNode value) {
+        if (path.matches()) {
+            return value;
+        }
+        JsonNode parent = get(root, path.head());
+        JsonPointer last = path.last();
+        if (parent.isObject()) {
+            ((ObjectNode) parent).set(last.getMatchingProperty(), value);
+        } else if (parent.isArray()) {
+            ArrayNode array = (ArrayNode) parent;
+            if (last.getMatchingProperty().equals("-")) {
+                array.add(value);
+            } else {
+                int index = index(last, array.size());
+                array.insert(index, value);
+            }
+        } else {
+            throw new InvalidPatchException("Cannot add to a scalar at " + path.head() + ".");
+        }
+        return root;
+    }
+
+    private static JsonNode remove(JsonNode root, JsonPointer path) {
+        if (path.matches()) {
+            throw new InvalidPatchException("Cannot remove the whole document.");
+        }
+        get(root, path);
+        JsonNode parent = root.at(path.head());
+        JsonPointer last = path.last();
+        if (parent.isObject()) {
+            ((ObjectNode) parent).remove(last.getMatchingProperty());
+        } else {
+            ArrayNode array = (ArrayNode) parent;
+            array.remove(index(last, array.size() - 1));
+        }
+        return root;
+    }
+
+    private static int index(JsonPointer last, int max) {
+        int index = last.getMatchingIndex();
+        if (index < 0 || index > max) {
+            throw new InvalidPatchException("Array index out of bounds: " + last.getMatchingProperty() + ".");
+        }
+        return index;
+    }
+}
@@ -0,0 +1,99 @@
+package edu.northeastern.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.fge.jackson.JsonLoader;
+import com.github.fge.jsonschema.core.exceptions.ProcessingException;
+import com.github.fge.jsonschema.core.report.ProcessingMessage;
+import com.github.fge.jsonschema.core.report.ProcessingReport;
+import com.github.fge.jsonschema.main.JsonSchema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ Compiles every JSON schema once and hands out the compiled validators.
+ A compiled JsonSchema is immutable, so one instance is shared by all request threads.
+ **/
+@Component
+public class JsonSchemaRegistry {
+
+    public static final String PLAN_SCHEMA = "/schema.json";
+    public static final String PATCH_SCHEMA = "/patchSchema.json";
+
+    private static final Logger logger = LoggerFactory.getLogger(JsonSchemaRegistry.class);
+
+    private final Map<String, JsonSchema> schemas = new ConcurrentHashMap<>();
+    private final Map<String, StreamingSchema> streamingSchemas = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        getSchema(PLAN_SCHEMA);
+        getSchema(PATCH_SCHEMA);
+        getStreamingSchema(PLAN_SCHEMA);
+        logger.info("Compiled json schemas: " + schemas.keySet() + ", streaming: " + streamingSchemas.keySet());
+    }
+
+    public JsonSchema getSchema(String path) {
+        return schemas.computeIfAbsent(path, JsonUtils::compileSchema);
+    }
+
+    /**
+     The schema at path for validating a document while it is parsed, see StreamingSchema
+     **/
+    public StreamingSchema getStreamingSchema(String path) {
+        return streamingSchemas.computeIfAbsent(path, p -> {
+            try {
+                return StreamingSchema.compile(JsonLoader.fromResource(p));
+            } catch (IOException ex) {
+                throw new IllegalStateException("Unable to load json schema: " + p, ex);
+            }
+        });
+    }
+
+    /**
+     Validate the node against the schema at path. Returns one entry per error, empty when the node is valid.
+     Each entry has the JSON pointer of the offending value, the failed keyword and the message.
+     Members of an object are checked even when the object itself fails, so every error is reported, as StreamingSchema does.
+     **/
+    public List<JsonNode> validate(JsonNode node, String path) {
+        JsonSchema schema = getSchema(path);
+        if (schema == null) {
+            return Collections.singletonList(error("", "schema", "Unable to load json schema: " + path));
+        }
+        try {
+            ProcessingReport report = schema.validate(node, true);
+            if (report.isSuccess()) {
+                return Collections.emptyList();
+            }
+            List<JsonNode> errors = new ArrayList<>();
+            for (ProcessingMessage message : report) {
+                JsonNode json = message.asJson();
+                errors.add(error(json.path("instance").path("pointer").asText(),
+                        json.path("keyword").asText(),
+                        message.getMessage()));
+            }
+            return errors;
+        } catch (ProcessingException ex) {
+            logger.error("Failed to validate with Json Schema from:" + path + ". " + ex.getMessage());
+            return Collections.singletonList(error("", "schema", ex.getMessage()));
+        }
+    }
+
+    static JsonNode error(String pointer, String keyword, String message) {
+        ObjectNode error = JsonNodeFactory.instance.objectNode();
+        error.put("pointer", pointer);
+        error.put("keyword", keyword);
+        error.put("message", message);
+        return error;
+    }
+}
@@ -33,20 +33,22 @@ public class JsonUtils {
         return null;
     }
 
-    public static boolean validateWithJsonSchema(JsonNode requestBodyJson, String path) {
+    /**
+     Load and compile the json schema at the classpath path. Compiling is expensive, use JsonSchemaRegistry instead of calling this per request.
+     **/
+    public static JsonSchema compileSchema(String path) {
         try{
             URL url = JsonUtils.class.getResource(path);
             String urlString = String.valueOf(url.toURI());
             JsonSchemaFactory jsonSchemaFactory = JsonSchemaFactory.byDefault();
-            JsonSchema schema = jsonSchemaFactory.getJsonSchema(urlString);
-            return schema.validate(requestBodyJson).isSuccess();
+            return jsonSchemaFactory.getJsonSchema(urlString);
         }catch (URISyntaxException ex){
-            logger.error("Invalid URI detected when validate request body with path:"+path);
+            logger.error("Invalid URI detected when loading json schema with path:"+path);
             ex.printStackTrace();
         } catch (ProcessingException ex){
             logger.error("Failed to parse Json Schema from:" + path);
             ex.printStackTrace();
         }
-        return false;
+        return null;
     }
 }
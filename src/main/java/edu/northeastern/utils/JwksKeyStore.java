@@ -0,0 +1,179 @@
+package edu.northeastern.utils;
+
+import com.auth0.jwk.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.interfaces.RSAPublicKey;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ In-memory store of the RSA signing keys published at the JWKS endpoint, keyed by kid.
+ Keys are refreshed in the background; when the endpoint is unreachable the local JWKS file is used instead.
+ **/
+@Component
+public class JwksKeyStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(JwksKeyStore.class);
+
+    @Value("${jwt.jwks.url:https://www.googleapis.com/oauth2/v3/certs}")
+    private String jwksUrl;
+
+    @Value("${jwt.jwks.local-file:}")
+    private String localFile;
+
+    @Value("${jwt.jwks.ttl-seconds:3600}")
+    private long ttlSeconds;
+
+    @Value("${jwt.jwks.refresh-seconds:900}")
+    private long refreshSeconds;
+
+    @Value("${jwt.jwks.min-reload-seconds:30}")
+    private long minReloadSeconds;
+
+    private final Map<String, CachedKey> keys = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "jwks-refresher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile long lastReload = 0L;
+
+    private final LongAdder keyHits = new LongAdder();
+    private final LongAdder keyMisses = new LongAdder();
+    private final LongAdder remoteLoads = new LongAdder();
+    private final LongAdder localLoads = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        reload();
+        refresher.scheduleAtFixedRate(this::scheduledReload, refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     An exception escaping a scheduled task cancels every later run, so it is only logged
+     **/
+    private void scheduledReload() {
+        try {
+            reload();
+        } catch (RuntimeException ex) {
+            loadFailures.increment();
+            logger.error("Scheduled JWKS reload failed. " + ex.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+
+    /**
+     1. Look up the public key for a kid, reloading the key set once if the kid is unknown (key rotation) or its key
+     expired. Reloads are rate limited: until the next one, an unknown kid or expired key is not found.
+     **/
+    public RSAPublicKey getKey(String kid) throws JwkException {
+        CachedKey cached = keys.get(kid);
+        if (cached != null && !cached.isExpired()) {
+            keyHits.increment();
+            return cached.key;
+        }
+        keyMisses.increment();
+        if (System.currentTimeMillis() - lastReload >= TimeUnit.SECONDS.toMillis(minReloadSeconds)) {
+            reload();
+        }
+        cached = keys.get(kid);
+        if (cached == null || cached.isExpired()) {
+            throw new SigningKeyNotFoundException("No key found in JWKS for kid: " + kid, null);
+        }
+        return cached.key;
+    }
+
+    /**
+     2. Fetch every key from the remote endpoint, falling back to the local JWKS file.
+     Keys missing from the new set are kept until their own TTL runs out, so in-flight tokens survive a rotation.
+     **/
+    public synchronized void reload() {
+        lastReload = System.currentTimeMillis();
+        List<Jwk> jwks = fetch(jwksUrl);
+        if (jwks != null) {
+            remoteLoads.increment();
+        } else if (localFile != null && !localFile.isEmpty()) {
+            try {
+                jwks = fetch(new File(localFile).toURI().toURL().toString());
+            } catch (MalformedURLException ex) {
+                logger.error("Local JWKS file path is in bad format. " + ex.getMessage());
+            }
+            if (jwks != null) {
+                localLoads.increment();
+                logger.warn("Loaded signing keys from local JWKS file: " + localFile);
+            }
+        }
+        if (jwks == null) {
+            loadFailures.increment();
+            return;
+        }
+        long expiresAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlSeconds);
+        for (Jwk jwk : jwks) {
+            try {
+                keys.put(jwk.getId(), new CachedKey((RSAPublicKey) jwk.getPublicKey(), expiresAt));
+            } catch (InvalidPublicKeyException ex) {
+                logger.error("Public Key in invalid. kid: " + jwk.getId() + ". " + ex.getMessage());
+            }
+        }
+        keys.entrySet().removeIf(e -> e.getValue().isExpired());
+    }
+
+    private List<Jwk> fetch(String url) {
+        try {
+            return new UrlJwkProvider(new URL(url)).getAll();
+        } catch (MalformedURLException ex) {
+            logger.error("Certificated URL is in bad format. " + ex.getMessage());
+        } catch (SigningKeyNotFoundException ex) {
+            logger.error("Unable to load JWKS from " + url + ". " + ex.getMessage());
+        }
+        return null;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long hits = keyHits.sum();
+        long misses = keyMisses.sum();
+        stats.put("keys", keys.size());
+        stats.put("keyHits", hits);
+        stats.put("keyMisses", misses);
+        stats.put("keyHitRate", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        stats.put("remoteLoads", remoteLoads.sum());
+        stats.put("localLoads", localLoads.sum());
+        stats.put("loadFailures", loadFailures.sum());
+        return stats;
+    }
+
+    private static class CachedKey {
+        private final RSAPublicKey key;
+        private final long expiresAt;
+
+        CachedKey(RSAPublicKey key, long expiresAt) {
+            this.key = key;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() > expiresAt;
+        }
+    }
+}
@@ -4,15 +4,20 @@ import com.auth0.jwk.*;
 import com.auth0.jwt.JWT;
 import com.auth0.jwt.JWTVerifier;
 import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.exceptions.TokenExpiredException;
 import com.auth0.jwt.interfaces.DecodedJWT;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.security.interfaces.RSAPublicKey;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 
 
@@ -20,22 +25,37 @@ import java.util.Date;
 public class JwtUtils {
     private static final String ISSUER = "https://accounts.google.com";
     private static final String AUDIENCE = "861514686898-4qhjfr1alpk0tvhi1j6dsdot2u77tv4j.apps.googleusercontent.com";
-    private static final String CERT_URL = "https://www.googleapis.com/oauth2/v3/certs";
 
     private static final Logger logger = LoggerFactory.getLogger(JwtUtils.class);
 
-    public static boolean verifyJWTToken(String tokenHeader)  {
+    @Autowired
+    private JwksKeyStore jwksKeyStore;
+
+    @Autowired
+    private VerifiedTokenCache verifiedTokenCache;
+
+    private final LongAdder tokenCacheHits = new LongAdder();
+    private final LongAdder tokenCacheMisses = new LongAdder();
+    private final LongAdder verificationNanos = new LongAdder();
+    private final AtomicLong maxVerificationNanos = new AtomicLong();
+
+    public boolean verifyJWTToken(String tokenHeader)  {
+        if(tokenHeader==null || tokenHeader.length() <= 7){
+            logger.error("Empty token provided.");
+            return false;
+        }
+        // Parse the JWT token: bearer xxxxxx
+        String jwt = tokenHeader.substring(7);
+        if (verifiedTokenCache.isVerified(jwt)) {
+            tokenCacheHits.increment();
+            return true;
+        }
+        tokenCacheMisses.increment();
+        long start = System.nanoTime();
         try{
-            if(tokenHeader==null){
-                logger.error("Empty token provided.");
-                return false;
-            }
-            // Parse the JWT token: bearer xxxxxx
-            String jwt = tokenHeader.substring(7);
             DecodedJWT decodedJWT = JWT.decode(jwt);
 
-            JwkProvider provider = new UrlJwkProvider(new URL(CERT_URL));
-            RSAPublicKey publicKey = (RSAPublicKey) provider.get(decodedJWT.getKeyId()).getPublicKey();
+            RSAPublicKey publicKey = jwksKeyStore.getKey(decodedJWT.getKeyId());
             Algorithm algorithm = Algorithm.RSA256(publicKey, null);
             JWTVerifier verifier = JWT.require(algorithm)
                     .withIssuer(decodedJWT.getIssuer())
@@ -52,16 +72,40 @@ public class JwtUtils {
                 logger.error("JWT signature is expired :"+decodedJWT.getExpiresAt());
                 return false;
             }
-        }catch (MalformedURLException ex) {
-            logger.error("Certificated URL is in bad format. "+ex.getMessage());
-            ex.printStackTrace();
+            verifiedTokenCache.put(jwt, decodedJWT.getExpiresAt().getTime());
         } catch (InvalidPublicKeyException ex) {
             logger.error("Public Key in invalid. "+ex.getMessage());
-            ex.printStackTrace();
+            return false;
         } catch (JwkException ex) {
+            //unknown kid, or no signing key could be loaded
             logger.error("Jwk exception occurred. "+ex.getMessage());
-            ex.printStackTrace();
+            return false;
+        } catch (TokenExpiredException ex) {
+            //callers answer an expired token with its own message
+            throw ex;
+        } catch (JWTVerificationException ex) {
+            logger.error("Token verification failed. "+ex.getMessage());
+            return false;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            verificationNanos.add(elapsed);
+            maxVerificationNanos.accumulateAndGet(elapsed, Math::max);
         }
         return true;
     }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long hits = tokenCacheHits.sum();
+        long misses = tokenCacheMisses.sum();
+        stats.put("tokenCacheHits", hits);
+        stats.put("tokenCacheMisses", misses);
+        stats.put("tokenCacheHitRate", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        stats.put("tokenCacheSize", verifiedTokenCache.size());
+        stats.put("verifications", misses);
+        stats.put("avgVerificationMicros", misses == 0 ? 0.0 : verificationNanos.sum() / 1000.0 / misses);
+        stats.put("maxVerificationMicros", maxVerificationNanos.get() / 1000.0);
+        stats.put("keyStore", jwksKeyStore.getStats());
+        return stats;
+    }
 }
@@ -0,0 +1,134 @@
+package edu.northeastern.utils;
+
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.*;
+
+/**
+ The subset of draft-04 json schema (type, properties, required, items) that can be checked while a document is
+ streamed token by token, without building it. Compiled once from the same file as the tree validator; a schema
+ using any other keyword is rejected when compiled, so both validators always agree.
+ Errors have the format of JsonSchemaRegistry.validate.
+ **/
+public class StreamingSchema {
+
+    public static final StreamingSchema ANY = new StreamingSchema(Collections.emptySet(), Collections.emptyMap(),
+            Collections.emptyList(), null, null);
+
+    private static final Set<String> supported = new HashSet<>(Arrays.asList(
+            "$schema", "title", "description", "type", "properties", "required", "items"));
+
+    private final Set<String> types;
+    private final Map<String, StreamingSchema> properties;
+    private final List<String> required;
+    //items: one schema for every item, or one per position (tuple), extra items are not checked
+    private final StreamingSchema items;
+    private final List<StreamingSchema> tupleItems;
+
+    private StreamingSchema(Set<String> types, Map<String, StreamingSchema> properties, List<String> required,
+                            StreamingSchema items, List<StreamingSchema> tupleItems) {
+        this.types = types;
+        this.properties = properties;
+        this.required = required;
+        this.items = items;
+        this.tupleItems = tupleItems;
+    }
+
+    public static StreamingSchema compile(JsonNode schema) {
+        schema.fieldNames().forEachRemaining(keyword -> {
+            if (!supported.contains(keyword)) {
+                throw new IllegalStateException("Keyword " + keyword + " cannot be checked on a stream");
+            }
+        });
+        Set<String> types = new HashSet<>();
+        if (schema.path("type").isArray()) {
+            schema.get("type").forEach(type -> types.add(type.asText()));
+        } else if (schema.has("type")) {
+            types.add(schema.get("type").asText());
+        }
+        Map<String, StreamingSchema> properties = new HashMap<>();
+        schema.path("properties").fields().forEachRemaining(e -> properties.put(e.getKey(), compile(e.getValue())));
+        List<String> required = new ArrayList<>();
+        schema.path("required").forEach(name -> required.add(name.asText()));
+        StreamingSchema items = null;
+        List<StreamingSchema> tupleItems = null;
+        if (schema.path("items").isArray()) {
+            tupleItems = new ArrayList<>();
+            for (JsonNode item : schema.get("items")) {
+                tupleItems.add(compile(item));
+            }
+        } else if (schema.path("items").isObject()) {
+            items = compile(schema.get("items"));
+        }
+        return new StreamingSchema(types, properties, required, items, tupleItems);
+    }
+
+    /**
+     Schema of the member name of an object
+     **/
+    public StreamingSchema property(String name) {
+        return properties.getOrDefault(name, ANY);
+    }
+
+    /**
+     Schema of the item at index of an array
+     **/
+    public StreamingSchema item(int index) {
+        if (tupleItems != null) return index < tupleItems.size() ? tupleItems.get(index) : ANY;
+        return items == null ? ANY : items;
+    }
+
+    /**
+     Check the type of the value starting at token (the parser's current token)
+     **/
+    public void checkType(JsonToken token, String pointer, List<JsonNode> errors) {
+        if (types.isEmpty()) return;
+        String type = typeOf(token);
+        if (types.contains(type) || (type.equals("integer") && types.contains("number"))) return;
+        errors.add(typeError(pointer, token, types));
+    }
+
+    public static JsonNode typeError(String pointer, JsonToken token, Collection<String> allowed) {
+        return JsonSchemaRegistry.error(pointer, "type", "instance type (" + typeOf(token)
+                + ") does not match any allowed primitive type (allowed: " + quoted(allowed) + ")");
+    }
+
+    /**
+     Required members absent from present, in schema order
+     **/
+    public List<String> missing(Set<String> present) {
+        List<String> missing = new ArrayList<>();
+        for (String name : required) {
+            if (!present.contains(name)) missing.add(name);
+        }
+        return missing;
+    }
+
+    public static JsonNode missingError(String pointer, Collection<String> missing) {
+        return JsonSchemaRegistry.error(pointer, "required", "object has missing required properties (" + quoted(missing) + ")");
+    }
+
+    public static JsonNode duplicateError(String pointer) {
+        return JsonSchemaRegistry.error(pointer, "duplicate", "member is defined more than once");
+    }
+
+    public static String typeOf(JsonToken token) {
+        switch (token) {
+            case START_OBJECT: return "object";
+            case START_ARRAY: return "array";
+            case VALUE_STRING: return "string";
+            case VALUE_NUMBER_INT: return "integer";
+            case VALUE_NUMBER_FLOAT: return "number";
+            case VALUE_TRUE:
+            case VALUE_FALSE: return "boolean";
+            default: return "null";
+        }
+    }
+
+    private static String quoted(Collection<String> names) {
+        StringJoiner joiner = new StringJoiner(",", "[", "]");
+        names.stream().sorted().forEach(name -> joiner.add("\"" + name + "\""));
+        return joiner.toString();
+    }
+}
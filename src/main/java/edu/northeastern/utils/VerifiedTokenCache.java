@@ -0,0 +1,79 @@
+package edu.northeastern.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ Bounded LRU cache of tokens whose signature and claims were already verified, keyed by SHA-256 of the token.
+ An entry is only valid until the token's own exp claim.
+ **/
+@Component
+public class VerifiedTokenCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(VerifiedTokenCache.class);
+
+    private final Map<String, Long> verified;
+
+    public VerifiedTokenCache(@Value("${jwt.token-cache.max-size:10000}") int maxSize) {
+        this.verified = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public boolean isVerified(String token) {
+        String hash = hash(token);
+        if (hash == null) return false;
+        synchronized (verified) {
+            Long expiresAt = verified.get(hash);
+            if (expiresAt == null) return false;
+            if (expiresAt <= System.currentTimeMillis()) {
+                verified.remove(hash);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    public void put(String token, long expiresAt) {
+        String hash = hash(token);
+        if (hash == null) return;
+        synchronized (verified) {
+            verified.put(hash, expiresAt);
+        }
+    }
+
+    public int size() {
+        synchronized (verified) {
+            return verified.size();
+        }
+    }
+
+    private static String hash(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hexSb = new StringBuilder();
+            for (byte b : digest) {
+                String hex = Integer.toHexString(0xff & b);
+                if (hex.length() == 1) {
+                    hexSb.append('0');
+                }
+                hexSb.append(hex);
+            }
+            return hexSb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            logger.error("Error occurred when hashing token. " + ex.getMessage());
+            return null;
+        }
+    }
+}
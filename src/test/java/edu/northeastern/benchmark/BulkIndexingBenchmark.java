@@ -0,0 +1,70 @@
+package edu.northeastern.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.fge.jackson.JsonLoader;
+import edu.northeastern.Service.ElasticsearchService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Documents indexed per second by ElasticsearchService.postDocument (one bulk request per plan).
+ Needs the elasticsearch node used by the application (localhost:9200) with the index created.
+ The "documents" counter is reported by JMH as documents/second.
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class BulkIndexingBenchmark {
+
+    @Param({"2", "20", "200"})
+    private int services;
+
+    private JsonNode plan;
+    private int documentsPerPlan;
+    private long sequence;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Documents {
+        public long documents;
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        ObjectNode root = (ObjectNode) JsonLoader.fromResource("/plan.json");
+        ArrayNode linkedPlanServices = (ArrayNode) root.get("linkedPlanServices");
+        JsonNode template = linkedPlanServices.get(0);
+        linkedPlanServices.removeAll();
+        for (int i = 0; i < services; i++) {
+            ObjectNode service = template.deepCopy();
+            service.put("objectId", "bench-planservice-" + i);
+            ((ObjectNode) service.get("linkedService")).put("objectId", "bench-service-" + i);
+            ((ObjectNode) service.get("planserviceCostShares")).put("objectId", "bench-membercostshare-" + i);
+            linkedPlanServices.add(service);
+        }
+        plan = root;
+        documentsPerPlan = 3 * services + 2;
+    }
+
+    @Benchmark
+    public String indexPlan(Documents counter) {
+        ((ObjectNode) plan).put("objectId", "bench-plan-" + (sequence++));
+        String result = ElasticsearchService.postDocument(plan, null, null, "indexplan");
+        counter.documents += documentsPerPlan;
+        return result;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(BulkIndexingBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,135 @@
+package edu.northeastern.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.fge.jackson.JsonLoader;
+import edu.northeastern.repository.PlanHydrator;
+import edu.northeastern.repository.PlanRepositoryImpl;
+import edu.northeastern.repository.PlanWriteBatch;
+import edu.northeastern.utils.JsonUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ Legacy populateNestedData (one GET per reference, re-serializing the tree every pass) vs the
+ breadth-first PlanHydrator (one MGET per level) on plans with 1, 10, 100 and 1000 linked services.
+ The store is an in-memory map; rttMicros simulates the redis round trip of each GET/MGET.
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HydrationBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    private int services;
+
+    @Param({"0", "100"})
+    private long rttMicros;
+
+    private final Map<String, String> store = new HashMap<>();
+    private String flattenedRoot;
+    private PlanHydrator hydrator;
+
+    @Setup
+    public void setup() throws IOException {
+        ObjectNode plan = (ObjectNode) JsonLoader.fromResource("/plan.json");
+        ArrayNode linkedPlanServices = (ArrayNode) plan.get("linkedPlanServices");
+        JsonNode template = linkedPlanServices.get(0);
+        linkedPlanServices.removeAll();
+        for (int i = 0; i < services; i++) {
+            ObjectNode service = template.deepCopy();
+            service.put("objectId", "planservice-" + i);
+            ((ObjectNode) service.get("linkedService")).put("objectId", "service-" + i);
+            ((ObjectNode) service.get("planserviceCostShares")).put("objectId", "membercostshare-" + i);
+            linkedPlanServices.add(service);
+        }
+        PlanWriteBatch batch = new PlanWriteBatch();
+        new PlanRepositoryImpl<>().traverseInput(plan, batch);
+        batch.getValues().forEach((k, v) -> store.put(k, v.toString()));
+        flattenedRoot = plan.toString();
+        hydrator = new PlanHydrator(keys -> {
+            roundTrip();
+            List<JsonNode> values = new ArrayList<>(keys.size());
+            keys.forEach(k -> values.add(JsonUtils.stringToNode(store.get(k))));
+            return values;
+        }, PlanHydrator.DEFAULT_MAX_DEPTH);
+    }
+
+    @Benchmark
+    public JsonNode legacyPopulateNestedData() {
+        JsonNode root = JsonUtils.stringToNode(flattenedRoot);
+        legacyPopulate(root, null);
+        return root;
+    }
+
+    @Benchmark
+    public JsonNode breadthFirstHydrator() {
+        JsonNode root = JsonUtils.stringToNode(flattenedRoot);
+        hydrator.hydrate(root, null);
+        return root;
+    }
+
+    private String get(String key) {
+        roundTrip();
+        return store.get(key);
+    }
+
+    private void roundTrip() {
+        if (rttMicros > 0) LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(rttMicros));
+    }
+
+    /**
+     Copy of PlanRepositoryImpl.populateNestedData before the hydration engine
+     **/
+    private void legacyPopulate(JsonNode parent, Set<String> childIdSet) {
+        if (parent == null) return;
+        while (parent.toString().contains("id_")) {
+            parent.fields().forEachRemaining(e -> {
+                JsonNode value = e.getValue();
+                if (value.isArray()) {
+                    List<JsonNode> tmp = new ArrayList<>();
+                    Iterator<JsonNode> iterator = value.iterator();
+                    while (iterator.hasNext()) {
+                        JsonNode cur = iterator.next();
+                        if (cur.asText().startsWith("id_")) tmp.add(cur);
+                        if (cur.isContainerNode()) legacyPopulate(cur, childIdSet);
+                        cur.iterator().forEachRemaining(innerNode -> {
+                            if (innerNode.isContainerNode())
+                                legacyPopulate(cur, childIdSet);
+                        });
+                    }
+                    if (!tmp.isEmpty()) {
+                        ((ArrayNode) e.getValue()).removeAll();
+                        tmp.forEach(s -> {
+                            if (childIdSet != null) childIdSet.add(s.asText());
+                            String originVal = get(s.asText());
+                            if (originVal != null) {
+                                ((ArrayNode) e.getValue()).add(JsonUtils.stringToNode(originVal));
+                            }
+                        });
+                    }
+                } else if (value.asText().startsWith("id_")) {
+                    if (childIdSet != null) childIdSet.add(value.asText());
+                    String originVal = get(value.asText());
+                    if (originVal == null) originVal = "";
+                    e.setValue(JsonUtils.stringToNode(originVal));
+                }
+            });
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(HydrationBenchmark.class.getSimpleName()).build()).run();
+    }
+}
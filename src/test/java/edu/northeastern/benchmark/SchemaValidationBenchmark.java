@@ -0,0 +1,52 @@
+package edu.northeastern.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.fge.jackson.JsonLoader;
+import com.github.fge.jsonschema.core.exceptions.ProcessingException;
+import edu.northeastern.utils.JsonSchemaRegistry;
+import edu.northeastern.utils.JsonUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Cold path (load + compile schema per request, the old JsonUtils.validateWithJsonSchema) vs
+ warm path (precompiled validator from JsonSchemaRegistry) on the sample plan.
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchemaValidationBenchmark {
+
+    private JsonNode plan;
+    private JsonSchemaRegistry registry;
+
+    @Setup
+    public void setup() throws IOException {
+        plan = JsonLoader.fromResource("/plan.json");
+        registry = new JsonSchemaRegistry();
+        registry.init();
+    }
+
+    @Benchmark
+    public boolean coldCompileAndValidate() throws ProcessingException {
+        return JsonUtils.compileSchema(JsonSchemaRegistry.PLAN_SCHEMA).validate(plan).isSuccess();
+    }
+
+    @Benchmark
+    public List<JsonNode> warmRegistryValidate() {
+        return registry.validate(plan, JsonSchemaRegistry.PLAN_SCHEMA);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SchemaValidationBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,84 @@
+package edu.northeastern.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.fge.jackson.JsonLoader;
+import edu.northeastern.repository.JacksonValueCodec;
+import edu.northeastern.repository.PlanRepositoryImpl;
+import edu.northeastern.repository.PlanWriteBatch;
+import edu.northeastern.repository.ValueCodec;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Decode time of every flattened object of a plan for each value codec; the bytes per plan
+ (sum of all encoded values, root included) are printed once per trial.
+ The legacy codec stores plain JSON text and parses it with JsonLoader like JsonUtils.stringToNode.
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValueCodecBenchmark {
+
+    @Param({"legacy", "json", "smile", "cbor", "smile+deflate"})
+    private String codecName;
+
+    @Param({"2", "100"})
+    private int services;
+
+    private ValueCodec codec;
+    private final List<byte[]> encoded = new ArrayList<>();
+
+    @Setup
+    public void setup() throws IOException {
+        ObjectNode plan = (ObjectNode) JsonLoader.fromResource("/plan.json");
+        ArrayNode linkedPlanServices = (ArrayNode) plan.get("linkedPlanServices");
+        JsonNode template = linkedPlanServices.get(0);
+        linkedPlanServices.removeAll();
+        for (int i = 0; i < services; i++) {
+            ObjectNode service = template.deepCopy();
+            service.put("objectId", "planservice-" + i);
+            ((ObjectNode) service.get("linkedService")).put("objectId", "service-" + i);
+            ((ObjectNode) service.get("planserviceCostShares")).put("objectId", "membercostshare-" + i);
+            linkedPlanServices.add(service);
+        }
+        PlanWriteBatch batch = new PlanWriteBatch();
+        new PlanRepositoryImpl<>().traverseInput(plan, batch);
+        batch.put("id_plan_root", plan);
+
+        String[] parts = codecName.split("\\+");
+        codec = "legacy".equals(parts[0]) ? null : JacksonValueCodec.forName(parts[0], parts.length > 1 ? 1 : 0);
+        long bytes = 0;
+        for (JsonNode value : batch.getValues().values()) {
+            byte[] raw = codec == null ? value.toString().getBytes("UTF-8") : codec.encode(value);
+            encoded.add(raw);
+            bytes += raw.length;
+        }
+        System.out.println("\n" + codecName + ", " + services + " services: " + bytes + " bytes per plan in " + encoded.size() + " values");
+    }
+
+    @Benchmark
+    public int decodePlan() throws IOException {
+        int fields = 0;
+        for (byte[] raw : encoded) {
+            JsonNode node = codec == null ? JsonLoader.fromString(new String(raw, "UTF-8")) : codec.decode(raw);
+            fields += node.size();
+        }
+        return fields;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ValueCodecBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,189 @@
+package edu.northeastern.repository;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ PlanDiff of the sample plan against edited copies, flattened by PlanRepositoryImpl.traverseInput (no redis needed)
+ **/
+class PlanDiffTests {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final String PLAN_ID = "12xvxc345ssdsds-508";
+
+    private final PlanRepositoryImpl repository = new PlanRepositoryImpl();
+    private JsonNode plan;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        try (InputStream in = getClass().getResourceAsStream("/plan.json")) {
+            plan = mapper.readTree(in);
+        }
+        PlanKeys.setLayout(PlanKeys.FLAT);
+    }
+
+    @AfterEach
+    void tearDown() {
+        PlanKeys.setLayout(PlanKeys.FLAT);
+    }
+
+    @Test
+    void unchangedPlanHasEmptyDiff() {
+        PlanDiff diff = diff(plan.deepCopy());
+        assertTrue(diff.isEmpty());
+        assertFalse(diff.toDelta().path("rootChanged").asBoolean());
+    }
+
+    @Test
+    void changedChildIsTheOnlyWrite() {
+        ObjectNode edited = plan.deepCopy();
+        ((ObjectNode) edited.get("planCostShares")).put("copay", 30);
+        PlanDiff diff = diff(edited);
+
+        assertEquals(Collections.singleton(PlanKeys.object(PLAN_ID, "membercostshare", "1234vxc2324sdf-501")), diff.getChangedKeys());
+        assertTrue(diff.getRemovedKeys().isEmpty());
+        ObjectNode delta = diff.toDelta();
+        assertFalse(delta.path("rootChanged").asBoolean());
+        assertEquals(1, delta.path("upsert").size());
+        JsonNode upsert = delta.path("upsert").get(0);
+        assertEquals("planCostShares", upsert.path("name").asText());
+        assertEquals(PLAN_ID, upsert.path("parent").asText());
+        assertEquals(30, upsert.path("document").path("copay").asInt());
+    }
+
+    @Test
+    void addedChildrenAreUpsertedUnderTheirParent() {
+        ObjectNode edited = plan.deepCopy();
+        ObjectNode service = plan.path("linkedPlanServices").get(0).deepCopy();
+        service.put("objectId", "27283xvx9new-509");
+        ((ObjectNode) service.get("linkedService")).put("objectId", "1234520xvc30new-510");
+        ((ObjectNode) service.get("planserviceCostShares")).put("objectId", "1234512xvc1314new-511");
+        ((ArrayNode) edited.get("linkedPlanServices")).add(service);
+        PlanDiff diff = diff(edited);
+
+        Set<String> expected = new HashSet<>(Arrays.asList(
+                PlanKeys.plan(PLAN_ID),
+                PlanKeys.object(PLAN_ID, "planservice", "27283xvx9new-509"),
+                PlanKeys.object(PLAN_ID, "service", "1234520xvc30new-510"),
+                PlanKeys.object(PLAN_ID, "membercostshare", "1234512xvc1314new-511")));
+        assertEquals(expected, diff.getChangedKeys());
+        ObjectNode delta = diff.toDelta();
+        assertTrue(delta.path("rootChanged").asBoolean());
+        Map<String, JsonNode> upserts = upserts(delta);
+        assertEquals(3, upserts.size());
+        assertEquals("linkedPlanServices", upserts.get("27283xvx9new-509").path("name").asText());
+        assertEquals(PLAN_ID, upserts.get("27283xvx9new-509").path("parent").asText());
+        assertEquals("linkedService", upserts.get("1234520xvc30new-510").path("name").asText());
+        assertEquals("27283xvx9new-509", upserts.get("1234520xvc30new-510").path("parent").asText());
+        assertEquals("planserviceCostShares", upserts.get("1234512xvc1314new-511").path("name").asText());
+    }
+
+    @Test
+    void removedChildrenOwnedByThePlanAreDeleted() {
+        PlanKeys.setLayout(PlanKeys.TAGGED);
+        PlanDiff diff = diff(withoutFirstService());
+
+        Set<String> expected = new HashSet<>(Arrays.asList(
+                PlanKeys.object(PLAN_ID, "planservice", "27283xvx9asdff-504"),
+                PlanKeys.object(PLAN_ID, "service", "1234520xvc30asdf-502"),
+                PlanKeys.object(PLAN_ID, "membercostshare", "1234512xvc1314asdfs-503")));
+        assertEquals(expected, diff.getRemovedKeys());
+        assertTrue(diff.getDetachedKeys().isEmpty());
+        assertEquals(Collections.singleton(PlanKeys.plan(PLAN_ID)), diff.getChangedKeys());
+
+        ObjectNode delta = diff.toDelta();
+        assertEquals(new HashSet<>(Arrays.asList("27283xvx9asdff-504", "1234520xvc30asdf-502", "1234512xvc1314asdfs-503")),
+                texts(delta.path("delete")));
+        assertEquals(0, delta.path("detach").size());
+
+        PlanWriteBatch batch = new PlanWriteBatch();
+        diff.addTo(batch);
+        Set<String> deleted = new HashSet<>();
+        batch.getOps().forEach(op -> {
+            if (op.getType() == PlanWriteBatch.Type.DEL) deleted.add(op.getKey());
+        });
+        assertEquals(expected, deleted);
+    }
+
+    @Test
+    void removedChildrenOfFlatLayoutAreOnlyDetached() {
+        PlanDiff diff = diff(withoutFirstService());
+
+        assertTrue(diff.getRemovedKeys().isEmpty());
+        assertEquals(3, diff.getDetachedKeys().size());
+        assertFalse(diff.isEmpty());
+
+        ObjectNode delta = diff.toDelta();
+        assertEquals(0, delta.path("delete").size());
+        assertEquals(new HashSet<>(Arrays.asList("27283xvx9asdff-504", "1234520xvc30asdf-502", "1234512xvc1314asdfs-503")),
+                texts(delta.path("detach")));
+
+        PlanWriteBatch batch = new PlanWriteBatch();
+        diff.addTo(batch);
+        batch.getOps().forEach(op -> assertNotEquals(PlanWriteBatch.Type.DEL, op.getType()));
+        assertEquals(diff.getDetachedKeys(), batch.getReleases().keySet());
+        batch.getReleases().values().forEach(plans -> assertEquals(Collections.singleton(PlanKeys.plan(PLAN_ID)), plans));
+        diff.getDetachedKeys().forEach(key -> assertFalse(batch.getReferences().containsKey(key)));
+    }
+
+    @Test
+    void flatChildrenAreReferredToByThePlan() {
+        ObjectNode edited = plan.deepCopy();
+        ((ObjectNode) edited.get("planCostShares")).put("copay", 30);
+        PlanWriteBatch batch = new PlanWriteBatch();
+        diff(edited).addTo(batch);
+
+        Map<String, Set<String>> references = batch.getReferences();
+        assertEquals(7, references.size());
+        assertFalse(references.containsKey(PlanKeys.plan(PLAN_ID)));
+        references.values().forEach(plans -> assertEquals(Collections.singleton(PlanKeys.plan(PLAN_ID)), plans));
+
+        PlanKeys.setLayout(PlanKeys.TAGGED);
+        PlanWriteBatch tagged = new PlanWriteBatch();
+        diff(edited).addTo(tagged);
+        assertTrue(tagged.getReferences().isEmpty());
+    }
+
+    @Test
+    void plansAreNotModified() {
+        JsonNode edited = withoutFirstService();
+        JsonNode before = plan.deepCopy();
+        JsonNode editedBefore = edited.deepCopy();
+        diff(edited);
+        assertEquals(before, plan);
+        assertEquals(editedBefore, edited);
+    }
+
+    private PlanDiff diff(JsonNode newPlan) {
+        return PlanDiff.between(PlanKeys.plan(PLAN_ID), plan, newPlan, repository::traverseInput);
+    }
+
+    private JsonNode withoutFirstService() {
+        ObjectNode edited = plan.deepCopy();
+        ((ArrayNode) edited.get("linkedPlanServices")).remove(0);
+        return edited;
+    }
+
+    private static Map<String, JsonNode> upserts(ObjectNode delta) {
+        Map<String, JsonNode> upserts = new HashMap<>();
+        delta.path("upsert").forEach(upsert -> upserts.put(upsert.path("document").path("objectId").asText(), upsert));
+        return upserts;
+    }
+
+    private static Set<String> texts(JsonNode array) {
+        Set<String> texts = new HashSet<>();
+        array.forEach(value -> texts.add(value.asText()));
+        return texts;
+    }
+}
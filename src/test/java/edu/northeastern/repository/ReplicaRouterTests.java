@@ -0,0 +1,152 @@
+package edu.northeastern.repository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ Replica selection, failover to the primary and ETag-pinned reads, against in-memory redis clients (no server needed)
+ **/
+class ReplicaRouterTests {
+
+    private static final String PLAN_KEY = "id_plan_12xvxc345ssdsds-508";
+
+    private ReplicaRouter router;
+    private FakeRedis primary;
+    private PlanRepositoryImpl repository;
+
+    @BeforeEach
+    void setUp() {
+        router = new ReplicaRouter(Collections.emptyList(), null, null, 0);
+        primary = new FakeRedis();
+        repository = new PlanRepositoryImpl();
+        ReflectionTestUtils.setField(repository, "jedis", primary);
+        ReflectionTestUtils.setField(repository, "replicas", router);
+        ReflectionTestUtils.setField(repository, "pinFreshReads", true);
+        ReflectionTestUtils.setField(repository, "nearCache", new PlanNearCache());
+    }
+
+    @AfterEach
+    void tearDown() {
+        router.close();
+        primary.close();
+    }
+
+    @Test
+    void picksHealthyReplicasRoundRobin() {
+        ReplicaRouter.Replica first = addReplica("replica-1:6380", new FakeRedis());
+        ReplicaRouter.Replica second = addReplica("replica-2:6380", new FakeRedis());
+        Set<ReplicaRouter.Replica> picked = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            picked.add(router.pick());
+        }
+        assertEquals(new HashSet<>(Arrays.asList(first, second)), picked);
+
+        ReflectionTestUtils.setField(first, "healthy", false);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(second, router.pick());
+        }
+        ReflectionTestUtils.setField(second, "healthy", false);
+        assertNull(router.pick());
+    }
+
+    @Test
+    void markDownTakesReplicaOutOfRotation() {
+        ReplicaRouter.Replica first = addReplica("replica-1:6380", new FakeRedis());
+        ReplicaRouter.Replica second = addReplica("replica-2:6380", new FakeRedis());
+        router.markDown(first, "connection reset");
+
+        assertEquals(1, router.healthyCount());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(second, router.pick());
+        }
+        Map<String, Object> stats = router.getStats().get(0);
+        assertEquals(false, stats.get("healthy"));
+        assertEquals(1L, stats.get("failures"));
+    }
+
+    @Test
+    void readFailsOverToPrimaryOnConnectionError() {
+        FakeRedis replica = new FakeRedis();
+        replica.down = true;
+        addReplica("replica-1:6380", replica);
+        primary.putView(PLAN_KEY, 5);
+
+        PlanView view = repository.getView(PLAN_KEY);
+        assertNotNull(view);
+        assertEquals(5, view.getVersion());
+        assertEquals(1, replica.reads);
+        assertEquals(0, router.healthyCount());
+
+        repository.getView(PLAN_KEY);
+        assertEquals(1, replica.reads);
+        assertEquals(2, primary.reads);
+    }
+
+    @Test
+    void replicaBehindTheClientEtagIsPinnedToPrimary() {
+        FakeRedis replica = new FakeRedis();
+        replica.putView(PLAN_KEY, 3);
+        addReplica("replica-1:6380", replica);
+        primary.putView(PLAN_KEY, 5);
+
+        assertEquals(5, repository.getView(PLAN_KEY, 5).getVersion());
+        assertEquals(1, primary.reads);
+        assertEquals(1L, repository.getStats().get("pinnedReads"));
+
+        //an older ETag is served by the replica
+        assertEquals(3, repository.getView(PLAN_KEY, 3).getVersion());
+        assertEquals(1, primary.reads);
+        assertEquals(1, router.healthyCount());
+    }
+
+    @Test
+    void viewMissingOnReplicaIsReadFromPrimaryWhenClientHasAnEtag() {
+        addReplica("replica-1:6380", new FakeRedis());
+        primary.putView(PLAN_KEY, 5);
+
+        assertEquals(5, repository.getView(PLAN_KEY, 5).getVersion());
+        assertNull(repository.getView(PLAN_KEY));
+    }
+
+    @SuppressWarnings("unchecked")
+    private ReplicaRouter.Replica addReplica(String node, FakeRedis client) {
+        ReplicaRouter.Replica replica = new ReplicaRouter.Replica(HostAndPort.from(node), client);
+        ReflectionTestUtils.setField(replica, "healthy", true);
+        ((List<ReplicaRouter.Replica>) ReflectionTestUtils.getField(router, "replicas")).add(replica);
+        return replica;
+    }
+
+    /**
+     Answers HMGET of views from memory; the pool is never used, so nothing connects
+     **/
+    private static class FakeRedis extends JedisPooled {
+        private final Map<String, Map<String, String>> hashes = new HashMap<>();
+        private boolean down;
+        private int reads;
+
+        void putView(String id, long version) {
+            hashes.put(PlanView.key(id), new PlanView("{\"objectId\":\"12xvxc345ssdsds-508\"}", "\"" + version + "\"", version).toHash());
+        }
+
+        @Override
+        public List<String> hmget(String key, String... fields) {
+            reads++;
+            if (down) throw new JedisConnectionException("Connection refused");
+            Map<String, String> hash = hashes.getOrDefault(key, Collections.emptyMap());
+            List<String> values = new ArrayList<>();
+            for (String field : fields) {
+                values.add(hash.get(field));
+            }
+            return values;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package edu.northeastern.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ If-Match uses the strong comparison, If-None-Match the weak one (RFC 7232 2.3.2)
+ **/
+class ETagUtilsTests {
+
+    private final ETagUtils eTagUtils = new ETagUtils();
+
+    @Test
+    void ifMatchIsStrong() {
+        assertTrue(eTagUtils.verifyEtag(request("If-Match", "\"3\""), "\"3\""));
+        assertFalse(eTagUtils.verifyEtag(request("If-Match", "\"4\""), "\"3\""));
+        assertFalse(eTagUtils.verifyEtag(request("If-Match", "W/\"3\""), "\"3\""));
+    }
+
+    @Test
+    void ifMatchAcceptsAnyAndLists() {
+        assertTrue(eTagUtils.verifyEtag(request("If-Match", "*"), "\"3\""));
+        assertTrue(eTagUtils.verifyEtag(request("If-Match", "\"1\", \"2\" ,\"3\""), "\"3\""));
+        assertTrue(eTagUtils.verifyEtag(request("If-Match", "W/\"3\", \"3\""), "\"3\""));
+        assertFalse(eTagUtils.verifyEtag(request("If-Match", "\"1\", W/\"3\""), "\"3\""));
+    }
+
+    @Test
+    void ifMatchWithoutHeaderOrEtagFails() {
+        assertFalse(eTagUtils.verifyEtag(new MockHttpServletRequest(), "\"3\""));
+        assertFalse(eTagUtils.verifyEtag(request("If-Match", "*"), null));
+    }
+
+    @Test
+    void ifNoneMatchIsWeak() {
+        assertTrue(eTagUtils.matchesIfNoneMatch(request("If-None-Match", "\"3\""), "\"3\""));
+        assertTrue(eTagUtils.matchesIfNoneMatch(request("If-None-Match", "W/\"3\""), "\"3\""));
+        assertTrue(eTagUtils.matchesIfNoneMatch(request("If-None-Match", "\"3\""), "W/\"3\""));
+        assertFalse(eTagUtils.matchesIfNoneMatch(request("If-None-Match", "\"4\""), "\"3\""));
+        assertFalse(eTagUtils.matchesIfNoneMatch(new MockHttpServletRequest(), "\"3\""));
+    }
+
+    @Test
+    void ifNoneMatchAcceptsAnyAndLists() {
+        assertTrue(eTagUtils.matchesIfNoneMatch(request("If-None-Match", "*"), "\"3\""));
+        assertTrue(eTagUtils.matchesIfNoneMatch(request("If-None-Match", "\"1\",W/\"3\""), "\"3\""));
+        assertFalse(eTagUtils.matchesIfNoneMatch(request("If-None-Match", "\"1\", \"2\""), "\"3\""));
+    }
+
+    @Test
+    void weakEtagDependsOnTheVariant() {
+        String fields = eTagUtils.weakEtag("\"3\"", "a1");
+        assertEquals("W/\"3-a1\"", fields);
+        assertTrue(eTagUtils.weakMatches(fields, eTagUtils.weakEtag("\"3\"", "a1")));
+        assertFalse(eTagUtils.weakMatches(fields, eTagUtils.weakEtag("\"3\"", "b2")));
+        assertFalse(eTagUtils.weakMatches(fields, "\"3\""));
+        assertFalse(eTagUtils.verifyEtag(request("If-Match", fields), "\"3\""));
+    }
+
+    @Test
+    void newestVersionOfAHeader() {
+        assertEquals(0, eTagUtils.newestVersion(null));
+        assertEquals(0, eTagUtils.newestVersion("*"));
+        assertEquals(7, eTagUtils.newestVersion("\"3\", W/\"7\", \"5\""));
+        assertEquals(12, eTagUtils.newestVersion(eTagUtils.weakEtag("\"12\"", "a1")));
+        assertEquals(4, eTagUtils.newestVersion("\"4\", \"not-a-version\""));
+    }
+
+    private static MockHttpServletRequest request(String header, String value) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(header, value);
+        return request;
+    }
+}
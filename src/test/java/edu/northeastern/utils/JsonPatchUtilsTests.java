@@ -0,0 +1,176 @@
+package edu.northeastern.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.northeastern.excpetions.InvalidPatchException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ JSON Patch against the examples of RFC 6902 appendix A, JSON Merge Patch against the table of RFC 7396 appendix A
+ **/
+class JsonPatchUtilsTests {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void addObjectMember() throws IOException {
+        assertPatch("{\"foo\":\"bar\"}",
+                "[{\"op\":\"add\",\"path\":\"/baz\",\"value\":\"qux\"}]",
+                "{\"baz\":\"qux\",\"foo\":\"bar\"}");
+    }
+
+    @Test
+    void addArrayElement() throws IOException {
+        assertPatch("{\"foo\":[\"bar\",\"baz\"]}",
+                "[{\"op\":\"add\",\"path\":\"/foo/1\",\"value\":\"qux\"}]",
+                "{\"foo\":[\"bar\",\"qux\",\"baz\"]}");
+    }
+
+    @Test
+    void removeObjectMember() throws IOException {
+        assertPatch("{\"baz\":\"qux\",\"foo\":\"bar\"}",
+                "[{\"op\":\"remove\",\"path\":\"/baz\"}]",
+                "{\"foo\":\"bar\"}");
+    }
+
+    @Test
+    void removeArrayElement() throws IOException {
+        assertPatch("{\"foo\":[\"bar\",\"qux\",\"baz\"]}",
+                "[{\"op\":\"remove\",\"path\":\"/foo/1\"}]",
+                "{\"foo\":[\"bar\",\"baz\"]}");
+    }
+
+    @Test
+    void replaceValue() throws IOException {
+        assertPatch("{\"baz\":\"qux\",\"foo\":\"bar\"}",
+                "[{\"op\":\"replace\",\"path\":\"/baz\",\"value\":\"boo\"}]",
+                "{\"baz\":\"boo\",\"foo\":\"bar\"}");
+    }
+
+    @Test
+    void moveValue() throws IOException {
+        assertPatch("{\"foo\":{\"bar\":\"baz\",\"waldo\":\"fred\"},\"qux\":{\"corge\":\"grault\"}}",
+                "[{\"op\":\"move\",\"from\":\"/foo/waldo\",\"path\":\"/qux/thud\"}]",
+                "{\"foo\":{\"bar\":\"baz\"},\"qux\":{\"corge\":\"grault\",\"thud\":\"fred\"}}");
+    }
+
+    @Test
+    void moveArrayElement() throws IOException {
+        assertPatch("{\"foo\":[\"all\",\"grass\",\"cows\",\"eat\"]}",
+                "[{\"op\":\"move\",\"from\":\"/foo/1\",\"path\":\"/foo/3\"}]",
+                "{\"foo\":[\"all\",\"cows\",\"eat\",\"grass\"]}");
+    }
+
+    @Test
+    void testSucceeds() throws IOException {
+        assertPatch("{\"baz\":\"qux\",\"foo\":[\"a\",2,\"c\"]}",
+                "[{\"op\":\"test\",\"path\":\"/baz\",\"value\":\"qux\"},{\"op\":\"test\",\"path\":\"/foo/1\",\"value\":2}]",
+                "{\"baz\":\"qux\",\"foo\":[\"a\",2,\"c\"]}");
+    }
+
+    @Test
+    void testFails() throws IOException {
+        assertRejected("{\"baz\":\"qux\"}", "[{\"op\":\"test\",\"path\":\"/baz\",\"value\":\"bar\"}]");
+    }
+
+    @Test
+    void addNestedMemberObject() throws IOException {
+        assertPatch("{\"foo\":\"bar\"}",
+                "[{\"op\":\"add\",\"path\":\"/child\",\"value\":{\"grandchild\":{}}}]",
+                "{\"foo\":\"bar\",\"child\":{\"grandchild\":{}}}");
+    }
+
+    @Test
+    void ignoresUnrecognizedMembers() throws IOException {
+        assertPatch("{\"foo\":\"bar\"}",
+                "[{\"op\":\"add\",\"path\":\"/baz\",\"value\":\"qux\",\"xyz\":123}]",
+                "{\"foo\":\"bar\",\"baz\":\"qux\"}");
+    }
+
+    @Test
+    void addToNonexistentTargetFails() throws IOException {
+        assertRejected("{\"foo\":\"bar\"}", "[{\"op\":\"add\",\"path\":\"/baz/bat\",\"value\":\"qux\"}]");
+    }
+
+    @Test
+    void escapesAreDecodedInOrder() throws IOException {
+        assertPatch("{\"/\":9,\"~1\":10}",
+                "[{\"op\":\"test\",\"path\":\"/~01\",\"value\":10}]",
+                "{\"/\":9,\"~1\":10}");
+    }
+
+    @Test
+    void stringIsNotEqualToNumber() throws IOException {
+        assertRejected("{\"/\":9,\"~1\":10}", "[{\"op\":\"test\",\"path\":\"/~01\",\"value\":\"10\"}]");
+    }
+
+    @Test
+    void addArrayValue() throws IOException {
+        assertPatch("{\"foo\":[\"bar\"]}",
+                "[{\"op\":\"add\",\"path\":\"/foo/-\",\"value\":[\"abc\",\"def\"]}]",
+                "{\"foo\":[\"bar\",[\"abc\",\"def\"]]}");
+    }
+
+    @Test
+    void moveFromMissingPathFails() throws IOException {
+        assertRejected("{\"foo\":\"bar\"}", "[{\"op\":\"move\",\"from\":\"/baz\",\"path\":\"/qux\"}]");
+    }
+
+    @Test
+    void moveIntoOwnChildFails() throws IOException {
+        assertRejected("{\"foo\":{\"bar\":1}}", "[{\"op\":\"move\",\"from\":\"/foo\",\"path\":\"/foo/bar/baz\"}]");
+    }
+
+    @Test
+    void failedPatchLeavesTargetUnchanged() throws IOException {
+        JsonNode target = mapper.readTree("{\"foo\":\"bar\"}");
+        JsonNode operations = mapper.readTree("[{\"op\":\"add\",\"path\":\"/baz\",\"value\":1},"
+                + "{\"op\":\"test\",\"path\":\"/foo\",\"value\":\"qux\"}]");
+        assertThrows(InvalidPatchException.class, () -> JsonPatchUtils.applyPatch(target, operations));
+        assertEquals(mapper.readTree("{\"foo\":\"bar\"}"), target);
+    }
+
+    @Test
+    void mergePatchExamples() throws IOException {
+        assertMerge("{\"a\":\"b\"}", "{\"a\":\"c\"}", "{\"a\":\"c\"}");
+        assertMerge("{\"a\":\"b\"}", "{\"b\":\"c\"}", "{\"a\":\"b\",\"b\":\"c\"}");
+        assertMerge("{\"a\":\"b\"}", "{\"a\":null}", "{}");
+        assertMerge("{\"a\":\"b\",\"b\":\"c\"}", "{\"a\":null}", "{\"b\":\"c\"}");
+        assertMerge("{\"a\":[\"b\"]}", "{\"a\":\"c\"}", "{\"a\":\"c\"}");
+        assertMerge("{\"a\":\"c\"}", "{\"a\":[\"b\"]}", "{\"a\":[\"b\"]}");
+        assertMerge("{\"a\":{\"b\":\"c\"}}", "{\"a\":{\"b\":\"d\",\"c\":null}}", "{\"a\":{\"b\":\"d\"}}");
+        assertMerge("{\"a\":[{\"b\":\"c\"}]}", "{\"a\":[1]}", "{\"a\":[1]}");
+        assertMerge("[\"a\",\"b\"]", "[\"c\",\"d\"]", "[\"c\",\"d\"]");
+        assertMerge("{\"a\":\"b\"}", "[\"c\"]", "[\"c\"]");
+        assertMerge("{\"a\":\"foo\"}", "null", "null");
+        assertMerge("{\"a\":\"foo\"}", "\"bar\"", "\"bar\"");
+        assertMerge("{\"e\":null}", "{\"a\":1}", "{\"e\":null,\"a\":1}");
+        assertMerge("[1,2]", "{\"a\":\"b\",\"c\":null}", "{\"a\":\"b\"}");
+        assertMerge("{}", "{\"a\":{\"bb\":{\"ccc\":null}}}", "{\"a\":{\"bb\":{}}}");
+    }
+
+    @Test
+    void mergePatchLeavesTargetUnchanged() throws IOException {
+        JsonNode target = mapper.readTree("{\"a\":{\"b\":\"c\"}}");
+        JsonPatchUtils.mergePatch(target, mapper.readTree("{\"a\":{\"b\":null}}"));
+        assertEquals(mapper.readTree("{\"a\":{\"b\":\"c\"}}"), target);
+    }
+
+    private static void assertPatch(String target, String operations, String expected) throws IOException {
+        assertEquals(mapper.readTree(expected), JsonPatchUtils.applyPatch(mapper.readTree(target), mapper.readTree(operations)));
+    }
+
+    private static void assertRejected(String target, String operations) throws IOException {
+        JsonNode node = mapper.readTree(target);
+        JsonNode patch = mapper.readTree(operations);
+        assertThrows(InvalidPatchException.class, () -> JsonPatchUtils.applyPatch(node, patch));
+    }
+
+    private static void assertMerge(String target, String patch, String expected) throws IOException {
+        assertEquals(mapper.readTree(expected), JsonPatchUtils.mergePatch(mapper.readTree(target), mapper.readTree(patch)));
+    }
+}
@@ -0,0 +1,126 @@
+package edu.northeastern.utils;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.TokenExpiredException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ JwtUtils against a JWKS file, no network
+ **/
+class JwtUtilsTests {
+
+    private static final String ISSUER = "https://accounts.google.com";
+    private static final String AUDIENCE = "861514686898-4qhjfr1alpk0tvhi1j6dsdot2u77tv4j.apps.googleusercontent.com";
+    private static final String KID = "test-key";
+
+    @TempDir
+    Path tempDir;
+
+    private KeyPair keyPair;
+    private JwksKeyStore keyStore;
+    private JwtUtils jwtUtils;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+        Path jwks = tempDir.resolve("jwks.json");
+        Files.write(jwks, jwks(KID, (RSAPublicKey) keyPair.getPublic()).getBytes(StandardCharsets.UTF_8));
+
+        keyStore = new JwksKeyStore();
+        ReflectionTestUtils.setField(keyStore, "jwksUrl", jwks.toUri().toURL().toString());
+        ReflectionTestUtils.setField(keyStore, "localFile", "");
+        ReflectionTestUtils.setField(keyStore, "ttlSeconds", 3600L);
+        ReflectionTestUtils.setField(keyStore, "minReloadSeconds", 30L);
+        keyStore.reload();
+
+        jwtUtils = new JwtUtils();
+        ReflectionTestUtils.setField(jwtUtils, "jwksKeyStore", keyStore);
+        ReflectionTestUtils.setField(jwtUtils, "verifiedTokenCache", new VerifiedTokenCache(100));
+    }
+
+    @Test
+    void acceptsTokenSignedWithPublishedKey() {
+        assertTrue(jwtUtils.verifyJWTToken("Bearer " + token(KID, AUDIENCE, 3600)));
+    }
+
+    @Test
+    void rejectsUnknownKid() {
+        assertFalse(jwtUtils.verifyJWTToken("Bearer " + token("other-key", AUDIENCE, 3600)));
+    }
+
+    @Test
+    void rejectsWrongAudience() {
+        assertFalse(jwtUtils.verifyJWTToken("Bearer " + token(KID, "someone-else", 3600)));
+    }
+
+    @Test
+    void rejectsTokenSignedWithAnotherKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair other = generator.generateKeyPair();
+        String forged = JWT.create().withKeyId(KID).withIssuer(ISSUER).withAudience(AUDIENCE)
+                .withExpiresAt(new Date(System.currentTimeMillis() + 3600_000))
+                .sign(Algorithm.RSA256((RSAPublicKey) other.getPublic(), (RSAPrivateKey) other.getPrivate()));
+        assertFalse(jwtUtils.verifyJWTToken("Bearer " + forged));
+    }
+
+    @Test
+    void rejectsKeyPastItsTtlWhileReloadIsRateLimited() throws Exception {
+        ReflectionTestUtils.setField(keyStore, "ttlSeconds", 0L);
+        keyStore.reload();
+        Thread.sleep(5);
+        assertFalse(jwtUtils.verifyJWTToken("Bearer " + token(KID, AUDIENCE, 3600)));
+    }
+
+    @Test
+    void expiredTokenIsReportedToTheCaller() {
+        assertThrows(TokenExpiredException.class, () -> jwtUtils.verifyJWTToken("Bearer " + token(KID, AUDIENCE, -60)));
+    }
+
+    @Test
+    void rejectsMissingOrMalformedHeader() {
+        assertFalse(jwtUtils.verifyJWTToken(null));
+        assertFalse(jwtUtils.verifyJWTToken("Bearer"));
+        assertFalse(jwtUtils.verifyJWTToken("Bearer not-a-jwt"));
+    }
+
+    private String token(String kid, String audience, long expiresInSeconds) {
+        return JWT.create()
+                .withKeyId(kid)
+                .withIssuer(ISSUER)
+                .withAudience(audience)
+                .withExpiresAt(new Date(System.currentTimeMillis() + expiresInSeconds * 1000))
+                .sign(Algorithm.RSA256((RSAPublicKey) keyPair.getPublic(), (RSAPrivateKey) keyPair.getPrivate()));
+    }
+
+    private static String jwks(String kid, RSAPublicKey key) {
+        return "{\"keys\":[{\"kty\":\"RSA\",\"alg\":\"RS256\",\"use\":\"sig\",\"kid\":\"" + kid + "\","
+                + "\"n\":\"" + base64Url(key.getModulus()) + "\",\"e\":\"" + base64Url(key.getPublicExponent()) + "\"}]}";
+    }
+
+    private static String base64Url(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        if (bytes[0] == 0) bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
@@ -0,0 +1,107 @@
+package edu.northeastern.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import edu.northeastern.repository.PlanStreamFlattener;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ The streaming validation of PlanStreamFlattener reports the same errors as JsonSchemaRegistry.validate
+ for the same plans
+ **/
+class StreamingSchemaTests {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final JsonSchemaRegistry registry = new JsonSchemaRegistry();
+    private ObjectNode plan;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        try (InputStream in = getClass().getResourceAsStream("/plan.json")) {
+            plan = (ObjectNode) mapper.readTree(in);
+        }
+    }
+
+    @Test
+    void validPlanHasNoErrors() throws IOException {
+        assertTrue(streamingErrors(plan.toString()).isEmpty());
+        assertSameErrors(plan);
+    }
+
+    @Test
+    void missingRootMembers() throws IOException {
+        plan.remove("objectType");
+        plan.remove("_org");
+        assertEquals(1, assertSameErrors(plan).size());
+    }
+
+    @Test
+    void wrongTypeOfNestedMember() throws IOException {
+        ((ObjectNode) plan.get("planCostShares")).put("copay", "23");
+        Set<JsonNode> errors = assertSameErrors(plan);
+        assertEquals(1, errors.size());
+        assertEquals("/planCostShares/copay", errors.iterator().next().path("pointer").asText());
+    }
+
+    @Test
+    void wrongTypeOfObjectMember() throws IOException {
+        plan.put("planCostShares", "none");
+        assertEquals(1, assertSameErrors(plan).size());
+    }
+
+    @Test
+    void missingMemberInsideArrayItem() throws IOException {
+        ArrayNode services = (ArrayNode) plan.get("linkedPlanServices");
+        ((ObjectNode) services.get(0).get("linkedService")).remove("name");
+        Set<JsonNode> errors = assertSameErrors(plan);
+        assertEquals(1, errors.size());
+        assertEquals("/linkedPlanServices/0/linkedService", errors.iterator().next().path("pointer").asText());
+    }
+
+    @Test
+    void severalErrorsAtOnce() throws IOException {
+        plan.remove("planType");
+        plan.put("creationDate", 12);
+        ((ObjectNode) plan.get("planCostShares")).put("deductible", 20.5);
+        ((ObjectNode) plan.get("linkedPlanServices").get(0).get("planserviceCostShares")).remove("copay");
+        assertEquals(4, assertSameErrors(plan).size());
+    }
+
+    @Test
+    void duplicateMemberIsReported() throws IOException {
+        String json = plan.toString().replaceFirst("\"planType\":\"inNetwork\"", "\"planType\":\"inNetwork\",\"planType\":\"outOfNetwork\"");
+        List<JsonNode> errors = streamingErrors(json);
+        assertEquals(1, errors.size());
+        assertEquals("/planType", errors.get(0).path("pointer").asText());
+        assertEquals("duplicate", errors.get(0).path("keyword").asText());
+    }
+
+    @Test
+    void rootOfWrongType() throws IOException {
+        Set<JsonNode> expected = new HashSet<>(registry.validate(mapper.readTree("[1]"), JsonSchemaRegistry.PLAN_SCHEMA));
+        assertEquals(expected, new HashSet<>(streamingErrors("[1]")));
+    }
+
+    private Set<JsonNode> assertSameErrors(JsonNode node) throws IOException {
+        Set<JsonNode> expected = new HashSet<>(registry.validate(node, JsonSchemaRegistry.PLAN_SCHEMA));
+        Set<JsonNode> actual = new HashSet<>(streamingErrors(node.toString()));
+        assertEquals(expected, actual);
+        return actual;
+    }
+
+    private List<JsonNode> streamingErrors(String json) throws IOException {
+        return PlanStreamFlattener.flatten(json, registry.getStreamingSchema(JsonSchemaRegistry.PLAN_SCHEMA)).getErrors();
+    }
+}